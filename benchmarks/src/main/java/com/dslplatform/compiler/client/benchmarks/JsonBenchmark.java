@@ -0,0 +1,156 @@
+package com.dslplatform.compiler.client.benchmarks;
+
+import com.dslplatform.compiler.client.Utils;
+import com.dslplatform.compiler.client.json.JsonObject;
+import com.dslplatform.compiler.client.json.JsonParser;
+import com.dslplatform.compiler.client.json.JsonValue;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+public class JsonBenchmark {
+
+	private Map<String, String> dslFiles;
+	private JsonObject dslJson;
+	private String dslText;
+	private JsonObject responseJson;
+	private String responseText;
+
+	@Setup
+	public void setup() {
+		dslFiles = Payloads.dslFiles(500);
+		dslJson = Utils.toJson(dslFiles);
+		dslText = dslJson.toString();
+		responseJson = Utils.toJson(Payloads.compiledFiles(200, 2000));
+		responseText = responseJson.toString();
+	}
+
+	private static class BlackholeWriter extends Writer {
+		private final Blackhole blackhole;
+
+		BlackholeWriter(final Blackhole blackhole) {
+			this.blackhole = blackhole;
+		}
+
+		@Override
+		public void write(final char[] buffer, final int offset, final int length) {
+			blackhole.consume(buffer);
+			blackhole.consume(length);
+		}
+
+		@Override
+		public void write(final String str, final int offset, final int length) {
+			blackhole.consume(str);
+			blackhole.consume(length);
+		}
+
+		@Override
+		public void write(final int c) {
+			blackhole.consume(c);
+		}
+
+		@Override
+		public void flush() {
+		}
+
+		@Override
+		public void close() {
+		}
+	}
+
+	@Benchmark
+	public JsonObject dslToJson() {
+		return Utils.toJson(dslFiles);
+	}
+
+	@Benchmark
+	public String dslWrite() {
+		return dslJson.toString();
+	}
+
+	@Benchmark
+	public void dslWriteToStream(final Blackhole blackhole) throws IOException {
+		dslJson.writeTo(new OutputStream() {
+			@Override
+			public void write(final int b) {
+				blackhole.consume(b);
+			}
+
+			@Override
+			public void write(final byte[] b, final int off, final int len) {
+				blackhole.consume(b);
+			}
+		});
+	}
+
+	@Benchmark
+	public JsonValue dslParse() {
+		return JsonValue.readFrom(dslText);
+	}
+
+	@Benchmark
+	public String responseWrite() {
+		return responseJson.toString();
+	}
+
+	@Benchmark
+	public void responseWriteTo(final Blackhole blackhole) throws IOException {
+		responseJson.writeTo(new BlackholeWriter(blackhole));
+	}
+
+	@Benchmark
+	public JsonValue responseParse() {
+		return JsonValue.readFrom(responseText);
+	}
+
+	@Benchmark
+	public void responseLookup(final Blackhole blackhole) {
+		for (final String name : responseJson.names()) {
+			blackhole.consume(responseJson.get(name));
+		}
+	}
+
+	@Benchmark
+	public void responseIterate(final Blackhole blackhole) {
+		for (final JsonObject.Member member : responseJson) {
+			blackhole.consume(member.getValue());
+		}
+	}
+
+	@Benchmark
+	public void responseStream(final Blackhole blackhole) throws IOException {
+		final BlackholeWriter writer = new BlackholeWriter(blackhole);
+		new JsonParser(new StringReader(responseText), 8192).parseStringMembers(new JsonParser.StringMemberHandler() {
+			@Override
+			public Writer member(final String name) {
+				blackhole.consume(name);
+				return writer;
+			}
+		});
+	}
+
+	@Benchmark
+	public int responseStreamToString() throws IOException {
+		final StringWriter writer = new StringWriter(responseText.length());
+		new JsonParser(new StringReader(responseText), 8192).parseStringMembers(new JsonParser.StringMemberHandler() {
+			@Override
+			public Writer member(final String name) {
+				return writer;
+			}
+		});
+		return writer.getBuffer().length();
+	}
+}
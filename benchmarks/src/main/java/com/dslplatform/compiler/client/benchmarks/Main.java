@@ -0,0 +1,22 @@
+package com.dslplatform.compiler.client.benchmarks;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs benchmarks with the gc profiler, so allocation rate is reported next to throughput.
+ * Accepts the same arguments as the JMH runner, eg. a regular expression to select benchmarks.
+ */
+public class Main {
+	public static void main(final String[] args) throws RunnerException, CommandLineOptionException {
+		final CommandLineOptions cmdOptions = new CommandLineOptions(args);
+		new Runner(new OptionsBuilder()
+				.parent(cmdOptions)
+				.addProfiler(GCProfiler.class)
+				.build()).run();
+	}
+}
@@ -0,0 +1,65 @@
+package com.dslplatform.compiler.client.benchmarks;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Random;
+
+abstract class Payloads {
+
+	/**
+	 * DSL files as sent to the server by Utils.toJson.
+	 * Mostly plain ASCII with indentation and line breaks, which need escaping.
+	 */
+	static Map<String, String> dslFiles(final int count) {
+		final Random random = new Random(42);
+		final Map<String, String> files = new LinkedHashMap<String, String>();
+		for (int i = 0; i < count; i++) {
+			final StringBuilder sb = new StringBuilder();
+			sb.append("module Module").append(i).append(" {\n");
+			final int aggregates = 1 + random.nextInt(10);
+			for (int a = 0; a < aggregates; a++) {
+				sb.append("\taggregate Entity").append(a).append(" {\n");
+				final int properties = 2 + random.nextInt(15);
+				for (int p = 0; p < properties; p++) {
+					sb.append("\t\tString(").append(10 + random.nextInt(100)).append(") property").append(p).append(";\n");
+				}
+				sb.append("\t\tEntity").append(random.nextInt(aggregates)).append("? *reference;\n");
+				sb.append("\t}\n");
+			}
+			sb.append("}\n");
+			files.put("dsl/module" + i + ".dsl", sb.toString());
+		}
+		return files;
+	}
+
+	/**
+	 * Generated sources as returned by the online compiler.
+	 * Long strings with a lot of quotes, backslashes, tabs and some non-ASCII characters.
+	 */
+	static Map<String, String> compiledFiles(final int count, final int linesPerFile) {
+		final Random random = new Random(7);
+		final Map<String, String> files = new LinkedHashMap<String, String>();
+		for (int i = 0; i < count; i++) {
+			final StringBuilder sb = new StringBuilder();
+			sb.append("package gen.module").append(i).append(";\n\n");
+			for (int l = 0; l < linesPerFile; l++) {
+				switch (random.nextInt(4)) {
+					case 0:
+						sb.append("\t\tfinal String s").append(l).append(" = \"value \\\"").append(l).append("\\\"\";\n");
+						break;
+					case 1:
+						sb.append("\t\tsw.write(\"\\\\\\\\server\\\\path\");\n");
+						break;
+					case 2:
+						sb.append("\t\t// Opis polja: \u0161\u0111\u010d\u0107\u017e ").append(l).append('\n');
+						break;
+					default:
+						sb.append("\t\tif (value").append(l).append(" != null) result.add(value").append(l).append(");\n");
+						break;
+				}
+			}
+			files.put("java_client/gen/module" + i + "/Type" + i + ".java", sb.toString());
+		}
+		return files;
+	}
+}
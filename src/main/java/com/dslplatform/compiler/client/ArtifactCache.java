@@ -0,0 +1,171 @@
+package com.dslplatform.compiler.client;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.nio.channels.FileLock;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * Machine wide cache of downloaded artifacts, such as compiler and target libraries.
+ * Each artifact version is installed once into ~/.dsl-platform/cache/artifact/version
+ * and then linked or copied into the project dependency folders.
+ * <p>
+ * Installation is done into a temporary folder and renamed when complete,
+ * while a file lock prevents other processes from installing the same version at the same time.
+ */
+public abstract class ArtifactCache {
+
+	public interface Installer {
+		void install(final File folder) throws IOException;
+	}
+
+	private static final Map<String, Object> locks = new HashMap<String, Object>();
+	private static final Method toPath;
+	private static final Method createLink;
+
+	static {
+		Method path = null;
+		Method link = null;
+		try {
+			final Class<?> pathClass = Class.forName("java.nio.file.Path");
+			final Class<?> filesClass = Class.forName("java.nio.file.Files");
+			path = File.class.getMethod("toPath");
+			link = filesClass.getMethod("createLink", pathClass, pathClass);
+		} catch (Exception ignore) {
+			path = null;
+			link = null;
+		}
+		toPath = path;
+		createLink = link;
+	}
+
+	public static File getRoot() {
+		return new File(new File(System.getProperty("user.home"), ".dsl-platform"), "cache");
+	}
+
+	private static String safeName(final String value) {
+		return value.replaceAll("[^A-Za-z0-9._-]", "_");
+	}
+
+	/**
+	 * File locks are held by the process, so threads which lock the same file must be synchronized on this object.
+	 */
+	public static Object lockFor(final String key) {
+		synchronized (locks) {
+			Object lock = locks.get(key);
+			if (lock == null) {
+				lock = new Object();
+				locks.put(key, lock);
+			}
+			return lock;
+		}
+	}
+
+	/**
+	 * Find artifact version in the cache, installing it first if it's missing.
+	 *
+	 * @return folder with the installed artifact
+	 */
+	public static File resolve(
+			final Context context,
+			final String artifact,
+			final String version,
+			final Installer installer) throws IOException {
+		final File artifactPath = new File(getRoot(), safeName(artifact));
+		final File folder = new File(artifactPath, safeName(version));
+		if (folder.isDirectory()) {
+			context.log("Using cached " + artifact + " " + version + " from " + folder.getAbsolutePath());
+			return folder;
+		}
+		if (!artifactPath.isDirectory() && !artifactPath.mkdirs() && !artifactPath.isDirectory()) {
+			throw new IOException("Unable to create artifact cache folder: " + artifactPath.getAbsolutePath());
+		}
+		// file locks are held by the process, so threads must be synchronized separately
+		synchronized (lockFor(folder.getAbsolutePath())) {
+			final RandomAccessFile lockFile = new RandomAccessFile(new File(artifactPath, safeName(version) + ".lock"), "rw");
+			try {
+				final FileLock lock = lockFile.getChannel().lock();
+				try {
+					if (folder.isDirectory()) {
+						context.log("Using " + artifact + " " + version + " installed by another process");
+						return folder;
+					}
+					final File temp = new File(artifactPath, safeName(version) + "-" + UUID.randomUUID().toString());
+					if (!temp.mkdirs()) {
+						throw new IOException("Unable to create temporary folder: " + temp.getAbsolutePath());
+					}
+					try {
+						installer.install(temp);
+						if (!temp.renameTo(folder)) {
+							throw new IOException("Unable to install " + artifact + " into " + folder.getAbsolutePath());
+						}
+						context.log("Installed " + artifact + " " + version + " into " + folder.getAbsolutePath());
+					} finally {
+						if (temp.exists()) {
+							Utils.deletePath(temp);
+							temp.delete();
+						}
+					}
+					return folder;
+				} finally {
+					lock.release();
+				}
+			} finally {
+				lockFile.close();
+			}
+		}
+	}
+
+	private static boolean tryLink(final File source, final File target) {
+		if (createLink == null) {
+			return false;
+		}
+		try {
+			createLink.invoke(null, toPath.invoke(target), toPath.invoke(source));
+			return true;
+		} catch (IllegalAccessException ignore) {
+			return false;
+		} catch (InvocationTargetException ignore) {
+			// eg. different file systems or links not supported
+			return false;
+		}
+	}
+
+	/**
+	 * Place all files from the cached artifact into the target folder.
+	 * Files are hard linked when running on Java 7 or newer and the file system supports it,
+	 * otherwise they are copied.
+	 */
+	public static void materialize(final Context context, final File cached, final File target) throws IOException {
+		final File[] files = cached.listFiles();
+		if (files == null) {
+			throw new IOException("Unable to read cached artifact: " + cached.getAbsolutePath());
+		}
+		if (!target.isDirectory() && !target.mkdirs()) {
+			throw new IOException("Unable to create folder: " + target.getAbsolutePath());
+		}
+		int linked = 0;
+		for (final File f : files) {
+			final File destination = new File(target, f.getName());
+			if (f.isDirectory()) {
+				materialize(context, f, destination);
+				continue;
+			}
+			if (destination.exists() && !destination.delete()) {
+				throw new IOException("Unable to replace: " + destination.getAbsolutePath());
+			}
+			if (tryLink(f, destination)) {
+				linked++;
+			} else {
+				Utils.copyFile(f, destination);
+			}
+		}
+		context.log("Placed " + files.length + " files from " + cached.getAbsolutePath() + " into " + target.getAbsolutePath()
+				+ (linked > 0 ? " (" + linked + " hard linked)" : ""));
+	}
+}
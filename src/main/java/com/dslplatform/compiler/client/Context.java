@@ -10,12 +10,14 @@ import org.fusesource.jansi.AnsiConsole;
 import java.io.PrintStream;
 import java.io.PrintWriter;
 import java.io.StringWriter;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.Map;
 
 public class Context {
-	private final Map<String, String> parameters = new HashMap<String, String>();
-	private final Map<String, Object> cache = new HashMap<String, Object>();
+	private final Map<String, String> parameters = Collections.synchronizedMap(new HashMap<String, String>());
+	private final Map<String, Object> cache = Collections.synchronizedMap(new HashMap<String, Object>());
+	private final ThreadLocal<String> prefix = new ThreadLocal<String>();
 
 	private PrintStream console = AnsiConsole.out();
 
@@ -64,6 +66,36 @@ public class Context {
 		return (T) cache.get(name);
 	}
 
+	/**
+	 * Prefix all messages written from the current thread.
+	 * Used to distinguish output of actions running in parallel.
+	 *
+	 * @param value prefix for each line or null to remove it
+	 */
+	public void setPrefix(final String value) {
+		if (value == null) {
+			prefix.remove();
+		} else {
+			prefix.set(value);
+		}
+	}
+
+	/**
+	 * Prefix of the current thread, so threads started on behalf of it
+	 * (such as readers of external process output) can use the same one.
+	 */
+	public String getPrefix() {
+		return prefix.get();
+	}
+
+	private String prefixed(final String value) {
+		final String p = prefix.get();
+		if (p == null || value == null) {
+			return value;
+		}
+		return p + value.replace("\n", "\n" + p);
+	}
+
 	private static synchronized void write(final PrintStream console, final boolean newLine, final String... values) {
 		if (values.length == 0) {
 			console.println();
@@ -82,7 +114,15 @@ public class Context {
 	}
 
 	public void show(final String... values) {
-		write(console, true, values);
+		if (prefix.get() == null) {
+			write(console, true, values);
+		} else {
+			final String[] lines = new String[values.length];
+			for (int i = 0; i < values.length; i++) {
+				lines[i] = prefixed(values[i]);
+			}
+			write(console, true, lines);
+		}
 	}
 
 	public static String inColor(final Ansi.Color color, final String message) {
@@ -91,19 +131,21 @@ public class Context {
 
 	public void log(final String value) {
 		if (withLog) {
-			write(console, true, withColor ? inColor(Color.YELLOW, value) : value);
+			final String msg = prefixed(value);
+			write(console, true, withColor ? inColor(Color.YELLOW, msg) : msg);
 		}
 	}
 
 	public void log(final char[] value, final int len) {
 		if (withLog) {
-			final String msg =  new String(value, 0, len);
+			final String msg = new String(value, 0, len);
 			write(console, false, withColor ? inColor(Color.YELLOW, msg) : msg);
 		}
 	}
 
 	public void error(final String value) {
-		write(console, true, withColor ? inColor(Color.RED, value) : value);
+		final String msg = prefixed(value);
+		write(console, true, withColor ? inColor(Color.RED, msg) : msg);
 	}
 
 	public void error(final Exception ex) {
@@ -0,0 +1,238 @@
+package com.dslplatform.compiler.client;
+
+import javax.xml.bind.DatatypeConverter;
+import java.io.*;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.channels.FileLock;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Properties;
+
+/**
+ * Resumable downloads.
+ * File is downloaded into a .part file next to the target, while the journal (.part.info)
+ * remembers the url and the server validator (ETag or Last-Modified) of the partial content.
+ * On retry, or on the next run, download continues with a Range request.
+ * Server responds with the whole file instead if it changed in the meantime.
+ * Downloaded content is verified against the expected SHA-1/SHA-256 hash
+ * or the hash provided by the server (X-Checksum-Sha1 header), when available.
+ */
+public abstract class Downloader {
+
+	public interface Processor {
+		void process(final File file) throws IOException;
+	}
+
+	private static final int RETRIES = 3;
+	private static final int HTTP_RANGE_NOT_SATISFIABLE = 416;
+
+	/**
+	 * Download remote file, resuming partial download from previous attempts.
+	 *
+	 * @param context  context
+	 * @param url      remote file
+	 * @param target   local file
+	 * @param checksum expected SHA-1 or SHA-256 hex of the content or null when not known
+	 */
+	public static void download(
+			final Context context,
+			final URL url,
+			final File target,
+			final String checksum) throws IOException {
+		IOException error = null;
+		for (int i = 0; i <= RETRIES; i++) {
+			if (i > 0) {
+				context.log("Retrying download... from " + url);
+			}
+			try {
+				fetch(context, url, target, checksum);
+				return;
+			} catch (IOException ex) {
+				context.log(ex.getMessage());
+				error = ex;
+			}
+		}
+		throw error;
+	}
+
+	/**
+	 * Download remote file into the system temporary folder and process it.
+	 * Location depends only on the url, so partial download can be resumed on the next run,
+	 * while a file lock prevents other processes from using the same file until it's processed and deleted.
+	 */
+	public static void downloadToTemp(
+			final Context context,
+			final URL url,
+			final String extension,
+			final Processor processor) throws IOException {
+		final File file = new File(System.getProperty("java.io.tmpdir"), "dsl-platform-" + Utils.sha1(url.toString()) + extension);
+		// file locks are held by the process, so threads must be synchronized separately
+		synchronized (ArtifactCache.lockFor(file.getAbsolutePath())) {
+			final RandomAccessFile lockFile = new RandomAccessFile(new File(file.getPath() + ".lock"), "rw");
+			try {
+				final FileLock lock = lockFile.getChannel().lock();
+				try {
+					download(context, url, file, null);
+					try {
+						processor.process(file);
+					} finally {
+						file.delete();
+					}
+				} finally {
+					lock.release();
+				}
+			} finally {
+				lockFile.close();
+			}
+		}
+	}
+
+	/**
+	 * Read checksum published next to the remote file, such as Maven .sha1 files.
+	 *
+	 * @return hex hash or null if it's not available
+	 */
+	public static String findChecksum(final Context context, final URL checksumUrl) {
+		try {
+			final InputStream stream = HttpTransport.open(checksumUrl).getInputStream();
+			final String content;
+			try {
+				content = Utils.read(stream).trim();
+			} finally {
+				HttpTransport.release(stream);
+			}
+			final int end = content.indexOf(' ');
+			final String hash = end == -1 ? content : content.substring(0, end);
+			if (hash.length() == 40 || hash.length() == 64) {
+				return hash.toLowerCase();
+			}
+			context.log("Invalid checksum found at: " + checksumUrl);
+		} catch (IOException ex) {
+			context.log("Checksum not available at: " + checksumUrl);
+		}
+		return null;
+	}
+
+	private static Properties readJournal(final File journal) {
+		if (!journal.exists()) {
+			return null;
+		}
+		final Properties properties = new Properties();
+		try {
+			final InputStream is = new FileInputStream(journal);
+			try {
+				properties.load(is);
+			} finally {
+				is.close();
+			}
+			return properties;
+		} catch (IOException ignore) {
+			return null;
+		}
+	}
+
+	private static void writeJournal(final File journal, final URL url, final String validator) throws IOException {
+		final Properties properties = new Properties();
+		properties.setProperty("url", url.toString());
+		properties.setProperty("validator", validator);
+		final OutputStream os = new FileOutputStream(journal);
+		try {
+			properties.store(os, null);
+		} finally {
+			os.close();
+		}
+	}
+
+	private static void fetch(
+			final Context context,
+			final URL url,
+			final File target,
+			final String checksum) throws IOException {
+		final File part = new File(target.getPath() + ".part");
+		final File journal = new File(target.getPath() + ".part.info");
+		final Properties state = readJournal(journal);
+		long offset = 0;
+		if (part.exists() && state != null && url.toString().equals(state.getProperty("url"))) {
+			offset = part.length();
+		} else {
+			part.delete();
+			journal.delete();
+		}
+		final HttpURLConnection conn = HttpTransport.open(url);
+		conn.setConnectTimeout(10000);
+		conn.setReadTimeout(60000);
+		if (offset > 0) {
+			conn.setRequestProperty("Range", "bytes=" + offset + "-");
+			conn.setRequestProperty("If-Range", state.getProperty("validator"));
+		}
+		if (conn.getResponseCode() == HTTP_RANGE_NOT_SATISFIABLE) {
+			HttpTransport.release(conn.getErrorStream());
+			part.delete();
+			journal.delete();
+			throw new IOException("Partial download of " + url + " is no longer valid");
+		}
+		final InputStream stream = HttpTransport.counted(conn.getInputStream());
+		final boolean resumed = offset > 0 && conn.getResponseCode() == HttpURLConnection.HTTP_PARTIAL;
+		if (resumed) {
+			context.log("Resuming download of " + url + " from " + (offset / 1024) + "kB");
+		}
+		final String validator = conn.getHeaderField("ETag") != null
+				? conn.getHeaderField("ETag")
+				: conn.getHeaderField("Last-Modified");
+		if (validator != null) {
+			writeJournal(journal, url, validator);
+		} else {
+			journal.delete();
+		}
+		final String expected = checksum != null ? checksum : conn.getHeaderField("X-Checksum-Sha1");
+		final OutputStream os = new FileOutputStream(part, resumed);
+		try {
+			final byte[] buffer = new byte[8192];
+			int len;
+			while ((len = stream.read(buffer)) != -1) {
+				os.write(buffer, 0, len);
+			}
+		} finally {
+			os.close();
+			HttpTransport.release(stream);
+		}
+		if (expected != null) {
+			final String actual = hash(part, expected.length() == 64 ? "SHA-256" : "SHA-1");
+			if (!actual.equalsIgnoreCase(expected.trim())) {
+				part.delete();
+				journal.delete();
+				throw new IOException("Checksum mismatch for " + url + ". Expected: " + expected + ". Found: " + actual);
+			}
+		}
+		if (target.exists() && !target.delete()) {
+			throw new IOException("Unable to replace " + target.getAbsolutePath());
+		}
+		if (!part.renameTo(target)) {
+			Utils.copyFile(part, target);
+			part.delete();
+		}
+		journal.delete();
+		context.log("Downloaded: " + url + ". Size: " + (target.length() / 1024) + "kB" + (expected != null ? " (verified)" : ""));
+	}
+
+	private static String hash(final File file, final String algorithm) throws IOException {
+		final MessageDigest digest;
+		try {
+			digest = MessageDigest.getInstance(algorithm);
+		} catch (NoSuchAlgorithmException ex) {
+			throw new IOException("Unable to verify download. " + algorithm + " not available");
+		}
+		final InputStream is = new FileInputStream(file);
+		try {
+			final byte[] buffer = new byte[8192];
+			int len;
+			while ((len = is.read(buffer)) != -1) {
+				digest.update(buffer, 0, len);
+			}
+		} finally {
+			is.close();
+		}
+		return DatatypeConverter.printHexBinary(digest.digest()).toLowerCase();
+	}
+}
@@ -1,6 +1,12 @@
 package com.dslplatform.compiler.client;
 
+import com.dslplatform.compiler.client.json.JsonArray;
+import com.dslplatform.compiler.client.json.JsonObject;
+import com.dslplatform.compiler.client.json.JsonParser;
 import com.dslplatform.compiler.client.json.JsonValue;
+import com.dslplatform.compiler.client.json.ParseException;
+import com.dslplatform.compiler.client.parameters.CompressRequests;
+import com.dslplatform.compiler.client.parameters.DslCache;
 import com.dslplatform.compiler.client.parameters.Password;
 import com.dslplatform.compiler.client.parameters.Username;
 import org.w3c.dom.Document;
@@ -10,24 +16,82 @@ import java.io.*;
 import java.net.HttpURLConnection;
 import java.net.URL;
 import java.net.UnknownHostException;
+import java.util.*;
+import java.util.zip.GZIPOutputStream;
 
 public class DslServer {
 	private static final String REMOTE_URL = "https://compiler.dsl-platform.com:8443/platform/";
+	private static final String UNCOMPRESSED_REQUESTS = "dsl_server_uncompressed_requests";
+	private static final int HTTP_UNSUPPORTED_MEDIA_TYPE = 415;
+	private static final String DSL_CACHE_UNSUPPORTED = "dsl_server_cache_unsupported";
+	private static final String DSL_CACHE_REFERENCES = "dsl_server_cache_references";
+	private static final long DSL_CACHE_RETRY_MILLIS = 7L * 24 * 60 * 60 * 1000;
+
+	private static class CountingOutputStream extends OutputStream {
+		private long count;
+
+		@Override
+		public void write(final int b) {
+			count++;
+		}
+
+		@Override
+		public void write(final byte[] b, final int off, final int len) {
+			count += len;
+		}
+	}
 
 	private static String readResponseError(final HttpURLConnection conn) throws IOException {
-		if (conn.getContentType() != null && conn.getContentType().startsWith("application/xml")) {
-			final Either<Document> xml = Utils.readXml(conn.getErrorStream());
-			if (!xml.isSuccess()) {
-				return "INTERNAL ERROR: Error reading xml response\n" + xml.explainError();
+		final InputStream stream = Utils.decode(conn, conn.getErrorStream());
+		try {
+			if (conn.getContentType() != null && conn.getContentType().startsWith("application/xml")) {
+				final Either<Document> xml = Utils.readXml(stream);
+				if (!xml.isSuccess()) {
+					return "INTERNAL ERROR: Error reading xml response\n" + xml.explainError();
+				}
+				final String error = xml.get().getDocumentElement().getTextContent();
+				return error != null ? error : "UNKNOWN ERROR";
 			}
-			final String error = xml.get().getDocumentElement().getTextContent();
-			return error != null ? error : "UNKNOWN ERROR";
+			if ("application/json".equals(conn.getContentType())) {
+				final StringWriter result = new StringWriter();
+				readString(stream, result);
+				return result.toString();
+			}
+			return Utils.read(stream);
+		} finally {
+			HttpTransport.release(stream);
 		}
-		final String result = Utils.read(conn.getErrorStream());
-		if ("application/json".equals(conn.getContentType()) && result.length() > 0) {
-			return JsonValue.readFrom(result).asString();
+	}
+
+	/**
+	 * Read response which is either a JSON string or plain text.
+	 * JSON string is unescaped while it's being read, without building a JSON tree.
+	 */
+	public static void readString(final InputStream stream, final Writer output) throws IOException {
+		final Reader reader = new BufferedReader(new InputStreamReader(stream, "UTF-8"));
+		try {
+			reader.mark(1);
+			final int first = reader.read();
+			reader.reset();
+			if (first == '"') {
+				final JsonParser parser = new JsonParser(reader);
+				try {
+					parser.next();
+					parser.readString(output);
+					parser.next();
+				} catch (ParseException ex) {
+					throw new IOException("Invalid response from server: " + ex.getMessage());
+				}
+			} else {
+				final char[] buffer = new char[8192];
+				int len;
+				while ((len = reader.read(buffer)) != -1) {
+					output.write(buffer, 0, len);
+				}
+			}
+		} finally {
+			reader.close();
 		}
-		return result;
 	}
 
 	private static Either<HttpURLConnection> setupConnection(
@@ -39,7 +103,7 @@ public class DslServer {
 		try {
 			final URL url = new URL(REMOTE_URL + address);
 			context.log("Calling: " + url.toString());
-			conn = (HttpURLConnection) url.openConnection();
+			conn = HttpTransport.open(url);
 		} catch (IOException ex) {
 			return Either.fail(ex);
 		}
@@ -62,6 +126,7 @@ public class DslServer {
 		if (getJson) {
 			conn.addRequestProperty("Accept", "application/json");
 		}
+		conn.addRequestProperty("Accept-Encoding", "gzip");
 		return Either.success(conn);
 	}
 
@@ -84,32 +149,90 @@ public class DslServer {
 	}
 
 	public static Either<String> put(final String address, final Context context, JsonValue json) throws ExitException {
-		return send(address, "PUT", context, json.toString());
+		final StringBuilder response = new StringBuilder();
+		final Either<Boolean> result = send(address, "PUT", context, json, new Utils.StreamProcessor() {
+			@Override
+			public void process(final InputStream stream) throws IOException {
+				response.append(Utils.read(stream));
+			}
+		}, null);
+		if (!result.isSuccess()) {
+			return Either.fail(result.whyNot());
+		}
+		return Either.success(response.toString());
 	}
 
-	private static Either<String> send(
+	/**
+	 * Send request to the server and pass the response stream to the processor.
+	 * Used for large responses which should not be kept in memory.
+	 */
+	public static Either<Boolean> put(
+			final String address,
+			final Context context,
+			final JsonValue json,
+			final Utils.StreamProcessor processor) throws ExitException {
+		return send(address, "PUT", context, json, processor, null);
+	}
+
+	private static Either<Boolean> send(
 			final String address,
 			final String method,
 			final Context context,
-			final String argument) throws ExitException {
+			final JsonValue argument,
+			final Utils.StreamProcessor processor,
+			final int[] optionalStatus) throws ExitException {
 		Either<HttpURLConnection> tryConn = setupConnection(address, context, true, true);
 		if (!tryConn.isSuccess()) {
 			return Either.fail(tryConn.whyNot());
 		}
 		HttpURLConnection conn = tryConn.get();
+		final boolean compress = context.contains(CompressRequests.INSTANCE) && context.load(UNCOMPRESSED_REQUESTS) == null;
 		try {
 			conn.setDoOutput(true);
 			conn.setRequestMethod(method);
-			final OutputStream os = conn.getOutputStream();
-			os.write(argument.getBytes("UTF-8"));
-			os.close();
-			return Either.success(Utils.read(conn.getInputStream()));
+			if (compress) {
+				final ByteArrayOutputStream body = new ByteArrayOutputStream();
+				final GZIPOutputStream gzip = new GZIPOutputStream(body, 8192);
+				argument.writeTo(gzip);
+				gzip.close();
+				context.log("Sending " + (body.size() / 1024) + "kB of compressed request");
+				conn.addRequestProperty("Content-Encoding", "gzip");
+				conn.setFixedLengthStreamingMode(body.size());
+				final OutputStream os = conn.getOutputStream();
+				body.writeTo(os);
+				os.close();
+				HttpTransport.sent(body.size());
+			} else {
+				final CountingOutputStream counter = new CountingOutputStream();
+				argument.writeTo(counter);
+				conn.setFixedLengthStreamingMode((int) counter.count);
+				final OutputStream os = conn.getOutputStream();
+				argument.writeTo(os);
+				os.close();
+				HttpTransport.sent(counter.count);
+			}
+			final InputStream is = Utils.decode(conn, HttpTransport.counted(conn.getInputStream()));
+			try {
+				processor.process(is);
+			} finally {
+				HttpTransport.release(is);
+			}
+			return Either.success(true);
 		} catch (UnknownHostException ex) {
 			return Either.fail("Error connecting to compiler.dsl-platform.com\nCheck if Internet connection is down.", ex);
 		} catch (IOException ex) {
 			try {
+				if (optionalStatus != null) {
+					optionalStatus[0] = conn.getResponseCode();
+					return Either.fail("Server responded with " + optionalStatus[0], ex);
+				}
 				if (conn.getResponseCode() == 403 && tryRestart(conn, context)) {
-					return send(address, method, context, argument);
+					return send(address, method, context, argument, processor, null);
+				}
+				if (compress && conn.getResponseCode() == HTTP_UNSUPPORTED_MEDIA_TYPE) {
+					context.log("Server doesn't accept compressed requests. Sending uncompressed request instead.");
+					context.cache(UNCOMPRESSED_REQUESTS, Boolean.TRUE);
+					return send(address, method, context, argument, processor, null);
 				}
 				if (conn.getErrorStream() != null) {
 					return Either.fail(readResponseError(conn));
@@ -121,9 +244,217 @@ public class DslServer {
 		}
 	}
 
+	private static File getDslCacheUnsupportedFile() {
+		return new File(new File(System.getProperty("user.home"), ".dsl-platform"), "dsl-cache-unsupported");
+	}
+
+	/**
+	 * Remember that the server doesn't support DSL cache, so later runs don't repeat the handshake.
+	 * Handshake is tried again after a week, in case server was upgraded in the meantime.
+	 */
+	private static void markDslCacheUnsupported(final Context context) {
+		context.cache(DSL_CACHE_UNSUPPORTED, Boolean.TRUE);
+		final File file = getDslCacheUnsupportedFile();
+		final File parent = file.getParentFile();
+		try {
+			if (!parent.exists() && !parent.mkdirs()) {
+				throw new IOException("Unable to create " + parent.getAbsolutePath());
+			}
+			Utils.saveFile(file, REMOTE_URL);
+		} catch (IOException ex) {
+			context.log("Unable to save DSL cache status. " + ex.getMessage());
+		}
+	}
+
+	private static boolean isDslCacheSupported(final Context context) {
+		if (!context.contains(DslCache.INSTANCE) || context.load(DSL_CACHE_UNSUPPORTED) != null) {
+			return false;
+		}
+		final File file = getDslCacheUnsupportedFile();
+		if (file.isFile() && System.currentTimeMillis() - file.lastModified() < DSL_CACHE_RETRY_MILLIS) {
+			final Either<String> server = Utils.readFile(file);
+			if (server.isSuccess() && REMOTE_URL.equals(server.get().trim())) {
+				context.cache(DSL_CACHE_UNSUPPORTED, Boolean.TRUE);
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Ask the server which files it doesn't have.
+	 * Handshake is optional, so its errors never trigger authorization retry and only cause a full upload.
+	 * Response must be an array of the requested hashes, otherwise server is considered as not supporting DSL cache.
+	 *
+	 * @param unsupported set to true when server doesn't know about DSL cache (rather than failing for some other reason)
+	 */
+	private static Either<Set<String>> findMissing(
+			final Context context,
+			final Set<String> hashes,
+			final boolean[] unsupported) throws ExitException {
+		final JsonArray request = new JsonArray();
+		for (final String h : hashes) {
+			request.add(h);
+		}
+		final StringBuilder response = new StringBuilder();
+		final int[] status = new int[1];
+		final Either<Boolean> result = send("Platform.svc/unmanaged/dsl-cache", "PUT", context, request, new Utils.StreamProcessor() {
+			@Override
+			public void process(final InputStream stream) throws IOException {
+				response.append(Utils.read(stream));
+			}
+		}, status);
+		if (!result.isSuccess()) {
+			unsupported[0] = status[0] == 404 || status[0] == 405 || status[0] == 501;
+			return Either.fail(result.whyNot());
+		}
+		unsupported[0] = true;
+		final Set<String> missing = new HashSet<String>();
+		try {
+			for (final JsonValue v : JsonValue.readFrom(response.toString()).asArray()) {
+				final String hash = v.asString();
+				if (!hashes.contains(hash)) {
+					return Either.fail("Unexpected DSL cache response: " + hash);
+				}
+				missing.add(hash);
+			}
+			unsupported[0] = false;
+		} catch (ParseException ex) {
+			return Either.fail(ex);
+		} catch (UnsupportedOperationException ex) {
+			return Either.fail(ex);
+		}
+		return Either.success(missing);
+	}
+
+	/**
+	 * Convert DSL files to request arguments, uploading only files which server doesn't already have.
+	 * Server is first sent hashes of all files and it responds with the ones it doesn't have cached for this account.
+	 * Files which server already has are sent as {"sha1": hash} references instead of their content.
+	 * References are used only for content which server confirmed it has, so content which repeats
+	 * across arguments (eg. old and new DSL in migration) is still sent in full in each of them.
+	 * DSL cache is used only when enabled with the dsl-cache parameter.
+	 * If server doesn't support it, all files are sent as is and this is remembered for later runs.
+	 * Failed requests should be checked with {@link #isMissingCachedDsl(Context, Either)}
+	 * and repeated with full content when server evicted some of the referenced files.
+	 */
+	public static List<JsonObject> toJson(final Context context, final List<Map<String, String>> dsls) throws ExitException {
+		final List<JsonObject> result = new ArrayList<JsonObject>(dsls.size());
+		if (isDslCacheSupported(context)) {
+			final List<Map<String, String>> hashes = new ArrayList<Map<String, String>>(dsls.size());
+			final Set<String> allHashes = new LinkedHashSet<String>();
+			for (final Map<String, String> dsl : dsls) {
+				final Map<String, String> fileHashes = new LinkedHashMap<String, String>();
+				for (final Map.Entry<String, String> kv : dsl.entrySet()) {
+					final String hash = Utils.sha1(kv.getValue());
+					fileHashes.put(kv.getKey(), hash);
+					allHashes.add(hash);
+				}
+				hashes.add(fileHashes);
+			}
+			final boolean[] unsupported = new boolean[1];
+			final Either<Set<String>> missing = findMissing(context, allHashes, unsupported);
+			if (missing.isSuccess()) {
+				final Set<String> uploaded = new HashSet<String>();
+				final Set<String> references = new HashSet<String>();
+				for (int i = 0; i < dsls.size(); i++) {
+					final JsonObject json = new JsonObject();
+					for (final Map.Entry<String, String> kv : dsls.get(i).entrySet()) {
+						final String hash = hashes.get(i).get(kv.getKey());
+						if (missing.get().contains(hash)) {
+							uploaded.add(hash);
+							json.add(kv.getKey(), kv.getValue());
+						} else {
+							references.add(hash);
+							json.add(kv.getKey(), new JsonObject().add("sha1", hash));
+						}
+					}
+					result.add(json);
+				}
+				context.log("Uploading " + uploaded.size() + " of " + allHashes.size() + " DSL files. Others are cached on server.");
+				context.cache(DSL_CACHE_REFERENCES, references);
+				return result;
+			}
+			context.log("DSL cache not available. Uploading all DSL files.");
+			context.log(missing.explainError());
+			if (unsupported[0]) {
+				markDslCacheUnsupported(context);
+			} else {
+				context.cache(DSL_CACHE_UNSUPPORTED, Boolean.TRUE);
+			}
+		}
+		context.cache(DSL_CACHE_REFERENCES, null);
+		for (final Map<String, String> dsl : dsls) {
+			result.add(Utils.toJson(dsl));
+		}
+		return result;
+	}
+
+	/**
+	 * Check if request failed because server doesn't have some of the files which were sent as references
+	 * by the last {@link #toJson(Context, List)} call.
+	 * Server can evict cached files between the handshake and the actual request.
+	 * In that case request should be repeated with the full DSL content.
+	 */
+	public static boolean isMissingCachedDsl(final Context context, final Either<?> response) {
+		final Set<String> references = context.load(DSL_CACHE_REFERENCES);
+		if (response.isSuccess() || references == null) {
+			return false;
+		}
+		context.cache(DSL_CACHE_REFERENCES, null);
+		final String error = response.explainError();
+		if (error == null) {
+			return false;
+		}
+		for (final String hash : references) {
+			if (error.contains(hash)) {
+				context.log("Server doesn't have cached DSL file " + hash + " anymore. Uploading all DSL files.");
+				return true;
+			}
+		}
+		return false;
+	}
+
+	public static JsonObject toJson(final Context context, final Map<String, String> dsl) throws ExitException {
+		return toJson(context, Collections.singletonList(dsl)).get(0);
+	}
+
+	/**
+	 * Version of the downloadable file, based on its ETag or Last-Modified header.
+	 *
+	 * @return version or null if server didn't provide it
+	 */
+	private static String remoteVersion(final URL url) {
+		try {
+			final HttpURLConnection conn = HttpTransport.open(url);
+			conn.setRequestMethod("HEAD");
+			conn.setConnectTimeout(10000);
+			conn.setReadTimeout(60000);
+			final String validator = conn.getHeaderField("ETag") != null
+					? conn.getHeaderField("ETag")
+					: conn.getHeaderField("Last-Modified");
+			HttpTransport.release(conn.getInputStream());
+			return validator != null ? Utils.sha1(validator).substring(0, 12) : null;
+		} catch (IOException ignore) {
+			return null;
+		}
+	}
+
 	public static void downloadAndUnpack(final Context context, final String file, final File path) throws IOException {
 		final URL server = new URL(REMOTE_URL + "download/" + file + ".zip");
-		context.log("Downloading " + file + ".zip ...");
-		Utils.unpackZip(context, path, server);
+		final String version = remoteVersion(server);
+		if (version == null) {
+			context.log("Downloading " + file + ".zip ...");
+			Utils.unpackZip(context, path, server);
+			return;
+		}
+		final File cached = ArtifactCache.resolve(context, file, version, new ArtifactCache.Installer() {
+			@Override
+			public void install(final File folder) throws IOException {
+				context.log("Downloading " + file + ".zip ...");
+				Utils.unpackZip(context, folder, server);
+			}
+		});
+		ArtifactCache.materialize(context, cached, path);
 	}
 }
@@ -0,0 +1,185 @@
+package com.dslplatform.compiler.client;
+
+import javax.net.ssl.HttpsURLConnection;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLSocketFactory;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.net.URL;
+import java.net.URLConnection;
+import java.security.GeneralSecurityException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Shared HTTP layer for all server calls and downloads.
+ * Connections are kept alive and reused by the JVM connection pool as long as
+ * response streams are fully read and closed and connections are not disconnected.
+ * Since pool is keyed by the socket factory, all HTTPS connections use a single SSL context,
+ * which also allows TLS sessions to be resumed on new connections.
+ */
+public abstract class HttpTransport {
+
+	private static final AtomicInteger requests = new AtomicInteger();
+	private static final AtomicInteger connections = new AtomicInteger();
+	private static final AtomicLong bytesSent = new AtomicLong();
+	private static final AtomicLong bytesReceived = new AtomicLong();
+	private static final SSLSocketFactory socketFactory = createSocketFactory();
+
+	private static SSLSocketFactory createSocketFactory() {
+		try {
+			final SSLContext ssl = SSLContext.getInstance("TLS");
+			ssl.init(null, null, null);
+			return new CountingSocketFactory(ssl.getSocketFactory());
+		} catch (GeneralSecurityException ex) {
+			return new CountingSocketFactory(HttpsURLConnection.getDefaultSSLSocketFactory());
+		}
+	}
+
+	private static class CountingSocketFactory extends SSLSocketFactory {
+		private final SSLSocketFactory factory;
+
+		private CountingSocketFactory(final SSLSocketFactory factory) {
+			this.factory = factory;
+		}
+
+		private Socket count(final Socket socket) {
+			connections.incrementAndGet();
+			return socket;
+		}
+
+		@Override
+		public String[] getDefaultCipherSuites() {
+			return factory.getDefaultCipherSuites();
+		}
+
+		@Override
+		public String[] getSupportedCipherSuites() {
+			return factory.getSupportedCipherSuites();
+		}
+
+		@Override
+		public Socket createSocket() throws IOException {
+			return count(factory.createSocket());
+		}
+
+		@Override
+		public Socket createSocket(final Socket socket, final String host, final int port, final boolean autoClose) throws IOException {
+			return count(factory.createSocket(socket, host, port, autoClose));
+		}
+
+		@Override
+		public Socket createSocket(final String host, final int port) throws IOException {
+			return count(factory.createSocket(host, port));
+		}
+
+		@Override
+		public Socket createSocket(final String host, final int port, final InetAddress localHost, final int localPort) throws IOException {
+			return count(factory.createSocket(host, port, localHost, localPort));
+		}
+
+		@Override
+		public Socket createSocket(final InetAddress host, final int port) throws IOException {
+			return count(factory.createSocket(host, port));
+		}
+
+		@Override
+		public Socket createSocket(final InetAddress address, final int port, final InetAddress localAddress, final int localPort) throws IOException {
+			return count(factory.createSocket(address, port, localAddress, localPort));
+		}
+	}
+
+	/**
+	 * Open connection which can reuse a pooled connection to the same server.
+	 * Response stream should be closed with {@link #release(InputStream)}.
+	 */
+	public static HttpURLConnection open(final URL url) throws IOException {
+		final URLConnection conn = url.openConnection();
+		if (!(conn instanceof HttpURLConnection)) {
+			throw new IOException("Unsupported protocol: " + url);
+		}
+		if (conn instanceof HttpsURLConnection) {
+			((HttpsURLConnection) conn).setSSLSocketFactory(socketFactory);
+		}
+		requests.incrementAndGet();
+		return (HttpURLConnection) conn;
+	}
+
+	/**
+	 * Read the rest of the response and close the stream.
+	 * Connection can be reused only after the whole response has been consumed.
+	 */
+	public static void release(final InputStream stream) {
+		if (stream == null) {
+			return;
+		}
+		try {
+			final byte[] buffer = new byte[8192];
+			while (stream.read(buffer) != -1) {
+			}
+		} catch (IOException ignore) {
+		} finally {
+			try {
+				stream.close();
+			} catch (IOException ignore) {
+			}
+		}
+	}
+
+	private static class CountingInputStream extends FilterInputStream {
+		private CountingInputStream(final InputStream stream) {
+			super(stream);
+		}
+
+		@Override
+		public int read() throws IOException {
+			final int b = super.read();
+			if (b != -1) {
+				bytesReceived.incrementAndGet();
+			}
+			return b;
+		}
+
+		@Override
+		public int read(final byte[] buffer, final int offset, final int length) throws IOException {
+			final int len = super.read(buffer, offset, length);
+			if (len > 0) {
+				bytesReceived.addAndGet(len);
+			}
+			return len;
+		}
+	}
+
+	/**
+	 * Count bytes read from the response stream, before it's decompressed.
+	 */
+	public static InputStream counted(final InputStream stream) {
+		return new CountingInputStream(stream);
+	}
+
+	public static void sent(final long bytes) {
+		bytesSent.addAndGet(bytes);
+	}
+
+	public static long getBytesSent() {
+		return bytesSent.get();
+	}
+
+	public static long getBytesReceived() {
+		return bytesReceived.get();
+	}
+
+	public static void logMetrics(final Context context) {
+		final int total = requests.get();
+		if (total == 0) {
+			return;
+		}
+		final int created = connections.get();
+		context.log("HTTP requests: " + total + ". New connections: " + created + ". Reused connections: " + Math.max(0, total - created)
+				+ ". Sent: " + (bytesSent.get() / 1024) + "kB. Received: " + (bytesReceived.get() / 1024) + "kB");
+	}
+}
@@ -0,0 +1,255 @@
+package com.dslplatform.compiler.client;
+
+import com.dslplatform.compiler.client.json.JsonArray;
+import com.dslplatform.compiler.client.json.JsonObject;
+import com.dslplatform.compiler.client.json.JsonValue;
+import com.dslplatform.compiler.client.parameters.MetricsOutput;
+import com.dslplatform.compiler.client.parameters.Timings;
+
+import java.io.*;
+import java.lang.management.*;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Records where time goes during a run.
+ * Each phase (check and run of a parameter, build of a target) is measured for
+ * wall time, process CPU time, HTTP traffic, time spent waiting on external processes
+ * (compiler, javac, csc, Maven...) and peak heap usage.
+ * CPU time is not available on JVMs which don't report process CPU time.
+ * Peak heap is an upper bound, since it's the sum of peaks of each heap pool which don't have to happen at the same time.
+ * <p>
+ * Counters are process wide, so phases which run concurrently (such as parallel target builds)
+ * include each other's traffic and child process time.
+ */
+public abstract class Instrumentation {
+
+	private static final String CACHE_NAME = "instrumentation_phases";
+
+	private static final AtomicLong childProcessNanos = new AtomicLong();
+	private static final Method processCpuTime;
+
+	static {
+		Method method = null;
+		try {
+			final OperatingSystemMXBean os = ManagementFactory.getOperatingSystemMXBean();
+			final Class<?> sunBean = Class.forName("com.sun.management.OperatingSystemMXBean");
+			if (sunBean.isInstance(os)) {
+				method = sunBean.getMethod("getProcessCpuTime");
+			}
+		} catch (Exception ignore) {
+			method = null;
+		}
+		processCpuTime = method;
+	}
+
+	public static class Sample {
+		private final String name;
+		private final long wall;
+		private final long cpu;
+		private final long sent;
+		private final long received;
+		private final long child;
+
+		private Sample(final String name) {
+			this.name = name;
+			this.wall = System.nanoTime();
+			this.cpu = cpuTime();
+			this.sent = HttpTransport.getBytesSent();
+			this.received = HttpTransport.getBytesReceived();
+			this.child = childProcessNanos.get();
+		}
+	}
+
+	private static class Phase {
+		private final String name;
+		private final long wallMs;
+		private final long cpuMs;
+		private final long sentBytes;
+		private final long receivedBytes;
+		private final long childMs;
+		private final long peakHeapBytes;
+
+		private Phase(final Sample start) {
+			this.name = start.name;
+			this.wallMs = (System.nanoTime() - start.wall) / 1000000;
+			final long cpu = cpuTime();
+			this.cpuMs = cpu == -1 || start.cpu == -1 ? -1 : (cpu - start.cpu) / 1000000;
+			this.sentBytes = HttpTransport.getBytesSent() - start.sent;
+			this.receivedBytes = HttpTransport.getBytesReceived() - start.received;
+			this.childMs = (childProcessNanos.get() - start.child) / 1000000;
+			this.peakHeapBytes = peakHeap();
+		}
+	}
+
+	/**
+	 * Thread CPU time is not used as a fallback, since most of the work is done in other threads.
+	 *
+	 * @return process CPU time in nanoseconds or -1 when it's not available
+	 */
+	private static long cpuTime() {
+		if (processCpuTime != null) {
+			try {
+				final long value = (Long) processCpuTime.invoke(ManagementFactory.getOperatingSystemMXBean());
+				return value < 0 ? -1 : value;
+			} catch (Exception ignore) {
+			}
+		}
+		return -1;
+	}
+
+	private static long peakHeap() {
+		long total = 0;
+		for (final MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+			if (pool.getType() == MemoryType.HEAP) {
+				total += pool.getPeakUsage().getUsed();
+			}
+		}
+		return total;
+	}
+
+	private static void resetPeakHeap() {
+		for (final MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+			if (pool.getType() == MemoryType.HEAP) {
+				pool.resetPeakUsage();
+			}
+		}
+	}
+
+	public static boolean isEnabled(final Context context) {
+		return context.contains(Timings.INSTANCE) || context.contains(MetricsOutput.INSTANCE);
+	}
+
+	/**
+	 * Start measuring a top level phase. Peak heap is tracked from this point on.
+	 *
+	 * @return sample to be passed to {@link #stop(Context, Sample)} or null when instrumentation is disabled
+	 */
+	public static Sample startPhase(final Context context, final String name) {
+		if (!isEnabled(context)) {
+			return null;
+		}
+		resetPeakHeap();
+		return new Sample(name);
+	}
+
+	/**
+	 * Start measuring a nested phase, such as a target build.
+	 * Since nested phases can run in parallel, they report the peak heap of the enclosing phase.
+	 */
+	public static Sample start(final Context context, final String name) {
+		return isEnabled(context) ? new Sample(name) : null;
+	}
+
+	public static void stop(final Context context, final Sample sample) {
+		if (sample == null) {
+			return;
+		}
+		final Phase phase = new Phase(sample);
+		synchronized (Instrumentation.class) {
+			List<Phase> phases = context.load(CACHE_NAME);
+			if (phases == null) {
+				phases = new ArrayList<Phase>();
+				context.cache(CACHE_NAME, phases);
+			}
+			phases.add(phase);
+		}
+	}
+
+	/**
+	 * Record time spent waiting for an external process to finish.
+	 */
+	public static void childProcess(final long nanos) {
+		childProcessNanos.addAndGet(nanos);
+	}
+
+	private static String pad(final String value, final int width, final boolean left) {
+		final StringBuilder sb = new StringBuilder(width);
+		if (!left) {
+			sb.append(value);
+		}
+		for (int i = value.length(); i < width; i++) {
+			sb.append(' ');
+		}
+		if (left) {
+			sb.append(value);
+		}
+		return sb.toString();
+	}
+
+	private static String row(final int nameWidth, final String name, final String... values) {
+		final StringBuilder sb = new StringBuilder(pad(name, nameWidth, false));
+		for (final String v : values) {
+			sb.append(pad(v, 12, true));
+		}
+		return sb.toString();
+	}
+
+	private static void showTable(final Context context, final List<Phase> phases) {
+		int width = 10;
+		for (final Phase p : phases) {
+			width = Math.max(width, p.name.length() + 2);
+		}
+		context.show();
+		context.show(row(width, "Phase", "Wall ms", "CPU ms", "Child ms", "Sent kB", "Recv kB", "Heap MB*"));
+		for (final Phase p : phases) {
+			context.show(row(width, p.name,
+					Long.toString(p.wallMs),
+					p.cpuMs == -1 ? "n/a" : Long.toString(p.cpuMs),
+					Long.toString(p.childMs),
+					Long.toString(p.sentBytes / 1024),
+					Long.toString(p.receivedBytes / 1024),
+					Long.toString(p.peakHeapBytes / (1024 * 1024))));
+		}
+		context.show("* upper bound of peak heap usage (sum of heap pool peaks)");
+	}
+
+	private static void writeJson(final Context context, final List<Phase> phases, final File file) {
+		final JsonArray array = new JsonArray();
+		for (final Phase p : phases) {
+			array.add(new JsonObject()
+					.add("phase", p.name)
+					.add("wallMs", p.wallMs)
+					.add("cpuMs", p.cpuMs == -1 ? JsonValue.NULL : JsonValue.valueOf(p.cpuMs))
+					.add("childProcessMs", p.childMs)
+					.add("bytesSent", p.sentBytes)
+					.add("bytesReceived", p.receivedBytes)
+					.add("peakHeapBytes", p.peakHeapBytes));
+		}
+		try {
+			final OutputStream os = new FileOutputStream(file);
+			try {
+				new JsonObject().add("phases", array).writeTo(os);
+			} finally {
+				os.close();
+			}
+			context.log("Metrics saved to " + file.getAbsolutePath());
+		} catch (IOException ex) {
+			context.error("Unable to save metrics to " + file.getAbsolutePath());
+			context.error(ex);
+		}
+	}
+
+	/**
+	 * Show timings and save metrics for all phases recorded so far and start over.
+	 */
+	public static void report(final Context context) {
+		final List<Phase> phases;
+		synchronized (Instrumentation.class) {
+			phases = context.load(CACHE_NAME);
+			context.cache(CACHE_NAME, null);
+		}
+		if (phases == null || phases.isEmpty()) {
+			return;
+		}
+		if (context.contains(Timings.INSTANCE)) {
+			showTable(context, phases);
+		}
+		final String file = context.get(MetricsOutput.INSTANCE);
+		if (file != null && file.length() > 0) {
+			writeJson(context, phases, new File(file));
+		}
+	}
+}
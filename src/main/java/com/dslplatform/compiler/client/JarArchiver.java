@@ -0,0 +1,164 @@
+package com.dslplatform.compiler.client;
+
+import java.io.*;
+import java.util.*;
+import java.util.jar.Attributes;
+import java.util.jar.JarEntry;
+import java.util.jar.JarOutputStream;
+import java.util.jar.Manifest;
+import java.util.zip.Deflater;
+
+/**
+ * Creates jar files without starting the jar tool.
+ * Files are streamed into the archive in sorted order, so the same input produces the same entries.
+ */
+public abstract class JarArchiver {
+
+	private static Manifest createManifest() {
+		final Manifest manifest = new Manifest();
+		final Attributes attributes = manifest.getMainAttributes();
+		attributes.put(Attributes.Name.MANIFEST_VERSION, "1.0");
+		final String version = Main.getVersion();
+		attributes.put(new Attributes.Name("Created-By"), version != null ? "DSL Platform " + version : "DSL Platform");
+		return manifest;
+	}
+
+	/**
+	 * Archive all files with the specified extension from the folder.
+	 *
+	 * @param folder    root of the archive
+	 * @param extension included files, eg. .class
+	 * @param output    jar file
+	 * @param level     compression level (0-9) or {@link Deflater#DEFAULT_COMPRESSION}
+	 * @return number of archived files
+	 */
+	public static int archive(final File folder, final String extension, final File output, final int level) throws IOException {
+		final JarOutputStream jar = new JarOutputStream(new BufferedOutputStream(new FileOutputStream(output), 65536), createManifest());
+		try {
+			jar.setLevel(level);
+			return addFolder(jar, folder, "", extension, new byte[65536]);
+		} finally {
+			jar.close();
+		}
+	}
+
+	/**
+	 * Archive files held in memory, such as classes compiled in memory.
+	 *
+	 * @param files  content by path within the archive, eg. com/example/Model.class
+	 * @param output jar file
+	 * @param level  compression level (0-9) or {@link Deflater#DEFAULT_COMPRESSION}
+	 */
+	public static void archive(final Map<String, byte[]> files, final File output, final int level) throws IOException {
+		final JarOutputStream jar = new JarOutputStream(new BufferedOutputStream(new FileOutputStream(output), 65536), createManifest());
+		try {
+			jar.setLevel(level);
+			final Set<String> folders = new HashSet<String>();
+			final long time = System.currentTimeMillis();
+			for (final Map.Entry<String, byte[]> kv : new TreeMap<String, byte[]>(files).entrySet()) {
+				addParents(jar, kv.getKey(), folders, time);
+				final JarEntry entry = new JarEntry(kv.getKey());
+				entry.setTime(time);
+				jar.putNextEntry(entry);
+				jar.write(kv.getValue());
+				jar.closeEntry();
+			}
+		} finally {
+			jar.close();
+		}
+	}
+
+	/**
+	 * Archive text files held in memory, such as generated sources, encoded as UTF-8.
+	 */
+	public static void archiveText(final Map<String, String> files, final File output, final int level) throws IOException {
+		final Map<String, byte[]> content = new HashMap<String, byte[]>();
+		for (final Map.Entry<String, String> kv : files.entrySet()) {
+			content.put(kv.getKey(), kv.getValue().getBytes("UTF-8"));
+		}
+		archive(content, output, level);
+	}
+
+	private static void addParents(
+			final JarOutputStream jar,
+			final String name,
+			final Set<String> folders,
+			final long time) throws IOException {
+		final int slash = name.lastIndexOf('/');
+		if (slash == -1) {
+			return;
+		}
+		final String folder = name.substring(0, slash + 1);
+		if (folders.contains(folder)) {
+			return;
+		}
+		addParents(jar, folder.substring(0, slash), folders, time);
+		folders.add(folder);
+		final JarEntry entry = new JarEntry(folder);
+		entry.setTime(time);
+		jar.putNextEntry(entry);
+		jar.closeEntry();
+	}
+
+	/**
+	 * Create jar with only the manifest.
+	 */
+	public static void archiveEmpty(final File output) throws IOException {
+		new JarOutputStream(new FileOutputStream(output), createManifest()).close();
+	}
+
+	private static boolean hasFiles(final File folder, final String extension) {
+		final File[] files = folder.listFiles();
+		if (files == null) {
+			return false;
+		}
+		for (final File f : files) {
+			if (f.isDirectory() ? hasFiles(f, extension) : f.getName().endsWith(extension)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private static int addFolder(
+			final JarOutputStream jar,
+			final File folder,
+			final String prefix,
+			final String extension,
+			final byte[] buffer) throws IOException {
+		final File[] files = folder.listFiles();
+		if (files == null) {
+			throw new IOException("Unable to read folder: " + folder.getAbsolutePath());
+		}
+		Arrays.sort(files);
+		int count = 0;
+		for (final File f : files) {
+			final String name = prefix + f.getName();
+			if (f.isDirectory()) {
+				if (hasFiles(f, extension)) {
+					final JarEntry entry = new JarEntry(name + "/");
+					entry.setTime(f.lastModified());
+					jar.putNextEntry(entry);
+					jar.closeEntry();
+					count += addFolder(jar, f, name + "/", extension, buffer);
+				}
+			} else if (f.getName().endsWith(extension)) {
+				final JarEntry entry = new JarEntry(name);
+				entry.setTime(f.lastModified());
+				jar.putNextEntry(entry);
+				final InputStream is = new FileInputStream(f);
+				try {
+					int len;
+					while ((len = is.read(buffer)) != -1) {
+						jar.write(buffer, 0, len);
+					}
+				} finally {
+					is.close();
+				}
+				jar.closeEntry();
+				count++;
+			}
+		}
+		return count;
+	}
+}
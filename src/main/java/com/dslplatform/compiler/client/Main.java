@@ -52,33 +52,55 @@ public class Main {
 			DslPath.INSTANCE,
 			SqlPath.INSTANCE,
 			Download.INSTANCE,
+			CompressRequests.INSTANCE,
+			DslCache.INSTANCE,
 			IncludeSources.INSTANCE,
 			Dependencies.INSTANCE,
 			DotNet.INSTANCE,
 			Mono.INSTANCE,
 			TempPath.INSTANCE,
 			DslCompiler.INSTANCE,
+			ServerMode.INSTANCE,
 			Maven.INSTANCE,
 			JavaPath.INSTANCE,
 			ScalaPath.INSTANCE,
+			JarCompression.INSTANCE,
+			InMemory.INSTANCE,
+			Incremental.INSTANCE,
 			Namespace.INSTANCE,
 			Settings.INSTANCE,
 			DbConnection.INSTANCE,
 			Prompt.INSTANCE,
 			Parse.INSTANCE,
 			Diff.INSTANCE,
+			Parallel.INSTANCE,
+			BuildCache.INSTANCE,
+			SkipUnchanged.INSTANCE,
 			Targets.INSTANCE,
 			ForceMigration.INSTANCE,
 			Migration.INSTANCE,
 			ApplyMigration.INSTANCE,
 			DisableColors.INSTANCE,
-			LogOutput.INSTANCE
+			LogOutput.INSTANCE,
+			Timings.INSTANCE,
+			MetricsOutput.INSTANCE,
+			Watch.INSTANCE
 	};
 
 	public static boolean processContext(final Context context, final List<CompileParameter> parameters) {
 		try {
 			for (final CompileParameter cp : parameters) {
-				if (!cp.check(context)) {
+				if (Watch.isCheckedOnBuild(context, cp)) {
+					continue;
+				}
+				final Instrumentation.Sample sample = Instrumentation.startPhase(context, "check " + cp.getAlias());
+				final boolean valid;
+				try {
+					valid = cp.check(context);
+				} finally {
+					Instrumentation.stop(context, sample);
+				}
+				if (!valid) {
 					if (cp.getDetailedDescription() != null) {
 						context.show();
 						context.show();
@@ -88,11 +110,22 @@ public class Main {
 				}
 			}
 			for (final CompileParameter cp : parameters) {
-				cp.run(context);
+				if (Watch.isRebuilt(context, cp)) {
+					continue;
+				}
+				final Instrumentation.Sample sample = Instrumentation.startPhase(context, "run " + cp.getAlias());
+				try {
+					cp.run(context);
+				} finally {
+					Instrumentation.stop(context, sample);
+				}
 			}
 			return true;
 		} catch (ExitException ex) {
 			return false;
+		} finally {
+			HttpTransport.logMetrics(context);
+			Instrumentation.report(context);
 		}
 	}
 
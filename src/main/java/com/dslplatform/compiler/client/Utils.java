@@ -4,16 +4,28 @@ import com.dslplatform.compiler.client.json.JsonObject;
 import org.w3c.dom.Document;
 import org.xml.sax.SAXException;
 
+import javax.xml.bind.DatatypeConverter;
 import javax.xml.parsers.DocumentBuilder;
 import javax.xml.parsers.DocumentBuilderFactory;
 import javax.xml.parsers.ParserConfigurationException;
 import java.io.*;
 import java.net.URL;
+import java.net.URLConnection;
+import java.nio.charset.Charset;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.util.*;
+import java.util.concurrent.*;
+import java.util.zip.GZIPInputStream;
 import java.util.zip.ZipEntry;
-import java.util.zip.ZipInputStream;
+import java.util.zip.ZipFile;
 
 public class Utils {
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
 	public static String read(final InputStream stream) throws IOException {
 		final BufferedReader reader = new BufferedReader(new InputStreamReader(stream));
 		final StringBuilder sb = new StringBuilder();
@@ -26,6 +38,56 @@ public class Utils {
 		return sb.toString();
 	}
 
+	/**
+	 * Response stream of a connection, decompressed if server responded with gzip encoded content.
+	 */
+	public static InputStream decode(final URLConnection connection, final InputStream stream) throws IOException {
+		if (stream != null && "gzip".equalsIgnoreCase(connection.getContentEncoding())) {
+			return new GZIPInputStream(stream, 8192);
+		}
+		return stream;
+	}
+
+	public static MessageDigest sha1Digest() {
+		try {
+			return MessageDigest.getInstance("SHA-1");
+		} catch (NoSuchAlgorithmException ex) {
+			throw new RuntimeException(ex);
+		}
+	}
+
+	/**
+	 * SHA-1 hex of the UTF-8 encoded content.
+	 */
+	public static String sha1(final String content) {
+		return DatatypeConverter.printHexBinary(sha1Digest().digest(content.getBytes(UTF8))).toLowerCase();
+	}
+
+	/**
+	 * Add length prefixed value to the digest, so consecutive values can't be combined into the same input.
+	 * Null is treated as an empty value.
+	 */
+	public static void updateDigest(final MessageDigest digest, final String value) {
+		updateDigest(digest, (value != null ? value : "").getBytes(UTF8));
+	}
+
+	public static void updateDigest(final MessageDigest digest, final byte[] bytes) {
+		digest.update(Integer.toString(bytes.length).getBytes(UTF8));
+		digest.update((byte) ':');
+		digest.update(bytes);
+	}
+
+	public static byte[] readBytes(final File file) throws IOException {
+		final byte[] bytes = new byte[(int) file.length()];
+		final DataInputStream is = new DataInputStream(new FileInputStream(file));
+		try {
+			is.readFully(bytes);
+		} finally {
+			is.close();
+		}
+		return bytes;
+	}
+
 	public static Either<String> readFile(final File file) {
 		try {
 			FileInputStream stream = new FileInputStream(file);
@@ -45,6 +107,26 @@ public class Utils {
 		fos.close();
 	}
 
+	public static void copyFile(final File from, final File to) throws IOException {
+		final FileInputStream fis = new FileInputStream(from);
+		try {
+			final FileOutputStream fos = new FileOutputStream(to);
+			try {
+				final FileChannel source = fis.getChannel();
+				final FileChannel target = fos.getChannel();
+				final long size = source.size();
+				long position = 0;
+				while (position < size) {
+					position += source.transferTo(position, size - position, target);
+				}
+			} finally {
+				fos.close();
+			}
+		} finally {
+			fis.close();
+		}
+	}
+
 	public static JsonObject toJson(final Map<String, String> map) {
 		final JsonObject json = new JsonObject();
 		for (final Map.Entry<String, String> kv : map.entrySet()) {
@@ -76,74 +158,120 @@ public class Utils {
 	}
 
 	public static void unpackZip(final Context context, final File path, final URL remoteUrl) throws IOException {
-		unpackZip(context, path, remoteUrl, new ArrayList<File>(), 3);
+		Downloader.downloadToTemp(context, remoteUrl, ".zip", new Downloader.Processor() {
+			@Override
+			public void process(final File zipFile) throws IOException {
+				unpackZip(context, path, zipFile);
+			}
+		});
 	}
 
-	private static void unpackZip(
-			final Context context,
-			final File path,
-			final URL remoteUrl,
-			final ArrayList<File> unpackedFiles,
-			final int retry) throws IOException {
+	private static long unpackEntry(final ZipFile zip, final ZipEntry entry, final File file) throws IOException {
+		final File parent = file.getParentFile();
+		if (parent != null && !parent.isDirectory() && !parent.mkdirs() && !parent.isDirectory()) {
+			throw new IOException("Unable to create folder: " + parent.getAbsolutePath());
+		}
+		final ReadableByteChannel source = Channels.newChannel(zip.getInputStream(entry));
 		try {
-			InputStream response = remoteUrl.openConnection().getInputStream();
-			final ZipInputStream zip = new ZipInputStream(new BufferedInputStream(response));
-			ZipEntry entry;
-			final byte[] buffer = new byte[8192];
-			while ((entry = zip.getNextEntry()) != null) {
-				long size = 0;
-				final File file = new File(path, entry.getName());
-				unpackedFiles.add(file);
-				final FileOutputStream fos = new FileOutputStream(file);
-				int len;
-				while ((len = zip.read(buffer)) != -1) {
-					fos.write(buffer, 0, len);
-					size += len;
+			final FileOutputStream fos = new FileOutputStream(file);
+			try {
+				final FileChannel target = fos.getChannel();
+				long position = 0;
+				long transferred;
+				while ((transferred = target.transferFrom(source, position, 1 << 20)) > 0) {
+					position += transferred;
 				}
+				return position;
+			} finally {
 				fos.close();
-				context.log("Unpacked: " + entry.getName() + ". Size: " + (size / 1024) + "kB");
-				zip.closeEntry();
-			}
-			zip.close();
-		} catch (IOException io) {
-			context.error(io);
-			for (final File f : unpackedFiles) {
-				if (f.delete()) {
-					context.log("Cleaned up: " + f);
-				} else {
-					context.log("Failed to clean up: " + f);
-				}
 			}
-			if (retry > 0) {
-				context.log("Retrying download... from " + remoteUrl);
-				unpackZip(context, path, remoteUrl, new ArrayList<File>(), retry - 1);
-			} else throw io;
+		} finally {
+			source.close();
 		}
 	}
 
-	public static void downloadFile(final File file, final URL url) throws IOException {
-		downloadFileAndRetry(file, url, 3);
-	}
-
-	private static void downloadFileAndRetry(final File file, final URL url, final int retry) throws IOException {
-		final FileOutputStream fos = new FileOutputStream(file);
+	/**
+	 * Unpack local zip archive into specified folder.
+	 * Entries are extracted in parallel, directly from the archive into the target files.
+	 * If unpacking fails, already unpacked files are removed.
+	 */
+	public static void unpackZip(final Context context, final File path, final File zipFile) throws IOException {
+		final long start = System.currentTimeMillis();
+		final String root = path.getCanonicalPath() + File.separator;
+		final ZipFile zip = new ZipFile(zipFile);
+		final List<File> unpackedFiles = Collections.synchronizedList(new ArrayList<File>());
+		final ExecutorService executor = Executors.newFixedThreadPool(Math.min(4, Runtime.getRuntime().availableProcessors()));
 		try {
-			final byte[] buffer = new byte[8192];
-			final InputStream stream = new BufferedInputStream(url.openConnection().getInputStream());
-			int len;
-			while ((len = stream.read(buffer)) != -1) {
-				fos.write(buffer, 0, len);
+			final List<Future<Long>> tasks = new ArrayList<Future<Long>>();
+			final Enumeration<? extends ZipEntry> entries = zip.entries();
+			while (entries.hasMoreElements()) {
+				final ZipEntry entry = entries.nextElement();
+				final File file = new File(path, entry.getName());
+				if (!file.getCanonicalPath().startsWith(root)) {
+					throw new IOException("Invalid zip entry: " + entry.getName());
+				}
+				if (entry.isDirectory()) {
+					if (!file.isDirectory() && !file.mkdirs() && !file.isDirectory()) {
+						throw new IOException("Unable to create folder: " + file.getAbsolutePath());
+					}
+					continue;
+				}
+				tasks.add(executor.submit(new Callable<Long>() {
+					@Override
+					public Long call() throws IOException {
+						unpackedFiles.add(file);
+						final long size = unpackEntry(zip, entry, file);
+						context.log("Unpacked: " + entry.getName() + ". Size: " + (size / 1024) + "kB");
+						return size;
+					}
+				}));
 			}
-			stream.close();
+			long total = 0;
+			for (final Future<Long> t : tasks) {
+				try {
+					total += t.get();
+				} catch (ExecutionException ex) {
+					if (ex.getCause() instanceof IOException) {
+						throw (IOException) ex.getCause();
+					}
+					throw new IOException("Error unpacking " + zipFile.getName() + ". " + ex.getCause().getMessage());
+				} catch (InterruptedException ex) {
+					throw new IOException("Unpacking " + zipFile.getName() + " was interrupted");
+				}
+			}
+			final long duration = Math.max(1, System.currentTimeMillis() - start);
+			context.log("Unpacked " + tasks.size() + " files (" + (total / 1024) + "kB) in " + duration + "ms. "
+					+ "Throughput: " + (total * 1000 / duration / 1024) + "kB/s");
 		} catch (IOException io) {
-			if (retry > 0) {
-				downloadFileAndRetry(file, url, retry - 1);
-			} else throw io;
+			executor.shutdownNow();
+			// running tasks must finish before their files are removed and zip is closed
+			try {
+				if (!executor.awaitTermination(1, TimeUnit.MINUTES)) {
+					context.log("Unpacking of " + zipFile.getName() + " didn't stop in time");
+				}
+			} catch (InterruptedException ex) {
+				Thread.currentThread().interrupt();
+			}
+			synchronized (unpackedFiles) {
+				for (final File f : unpackedFiles) {
+					if (f.delete()) {
+						context.log("Cleaned up: " + f);
+					} else {
+						context.log("Failed to clean up: " + f);
+					}
+				}
+			}
+			throw io;
 		} finally {
-			fos.close();
+			executor.shutdownNow();
+			zip.close();
 		}
 	}
 
+	public static void downloadFile(final Context context, final File file, final URL url, final String checksum) throws IOException {
+		Downloader.download(context, url, file, checksum);
+	}
+
 	public static synchronized Either<Document> readXml(final InputStream stream) {
 		try {
 			final DocumentBuilderFactory dbFactory = DocumentBuilderFactory.newInstance();
@@ -178,23 +306,36 @@ public class Utils {
 		private final BufferedReader reader;
 		private final Context context;
 		private final StringBuilder output = new StringBuilder();
+		private final boolean keepOutput;
+		private final String prefix;
 		private IOException exception;
 
-		private ConsumeStream(final InputStream stream, final Context context) {
+		private ConsumeStream(final InputStream stream, final Context context, final boolean keepOutput) {
 			this.reader = new BufferedReader(new InputStreamReader(stream));
 			this.context = context;
+			this.keepOutput = keepOutput;
+			this.prefix = context != null ? context.getPrefix() : null;
 		}
 
 		private ConsumeStream() {
 			this.reader = null;
 			this.context = null;
+			this.keepOutput = false;
+			this.prefix = null;
 		}
 
 		public static ConsumeStream start(final InputStream stream, final Context context) {
 			if (stream == null) {
 				return new ConsumeStream();
 			}
-			final ConsumeStream cs = new ConsumeStream(stream, context);
+			final ConsumeStream cs = new ConsumeStream(stream, context, true);
+			cs.start();
+			return cs;
+		}
+
+		public static ConsumeStream drain(final InputStream stream, final Context context) {
+			final ConsumeStream cs = new ConsumeStream(stream, context, false);
+			cs.setDaemon(true);
 			cs.start();
 			return cs;
 		}
@@ -204,19 +345,45 @@ public class Utils {
 			if (reader == null) {
 				return;
 			}
+			if (context != null) {
+				context.setPrefix(prefix);
+			}
 			final char[] buffer = new char[8192];
+			final StringBuilder line = new StringBuilder();
 			int len;
 			try {
 				while ((len = reader.read(buffer)) != -1) {
-					output.append(buffer, 0, len);
+					if (keepOutput) {
+						output.append(buffer, 0, len);
+					}
 					if (context != null) {
-						context.log(buffer, len);
+						logLines(buffer, len, line);
 					}
 				}
 				reader.close();
 			} catch (IOException ex) {
 				exception = ex;
 			}
+			if (context != null && line.length() > 0) {
+				context.log(line.toString());
+			}
+		}
+
+		/**
+		 * Log only whole lines, so output of processes running in parallel
+		 * doesn't get mixed within a line and each line gets the prefix of its target.
+		 */
+		private void logLines(final char[] buffer, final int len, final StringBuilder line) {
+			for (int i = 0; i < len; i++) {
+				final char c = buffer[i];
+				if (c == '\n') {
+					final int end = line.length();
+					context.log(end > 0 && line.charAt(end - 1) == '\r' ? line.substring(0, end - 1) : line.toString());
+					line.setLength(0);
+				} else {
+					line.append(c);
+				}
+			}
 		}
 	}
 
@@ -230,12 +397,17 @@ public class Utils {
 			commandAndArgs.add(command);
 			commandAndArgs.addAll(arguments);
 			final ProcessBuilder pb = new ProcessBuilder(commandAndArgs);
+			final long start = System.nanoTime();
 			final Process compilation = pb.start();
 			final ConsumeStream result = ConsumeStream.start(compilation.getInputStream(), null);
 			final ConsumeStream error = ConsumeStream.start(compilation.getErrorStream(), null);
-			compilation.waitFor();
-			result.join();
-			error.join();
+			try {
+				compilation.waitFor();
+				result.join();
+				error.join();
+			} finally {
+				Instrumentation.childProcess(System.nanoTime() - start);
+			}
 			return error.output.toString().contains(contains) || result.output.toString().contains(contains);
 		} catch (IOException ex) {
 			context.log(ex.getMessage());
@@ -246,7 +418,25 @@ public class Utils {
 		}
 	}
 
+	public interface StreamProcessor {
+		void process(final InputStream stream) throws IOException;
+	}
+
 	public static Either<CommandResult> runCommand(final Context context, final String command, final File path, final List<String> arguments) {
+		return runCommand(context, command, path, arguments, null);
+	}
+
+	/**
+	 * Run command and pass its output to the processor as it arrives.
+	 * Processor is responsible for consuming the whole stream.
+	 * Output of the command result will be empty in that case.
+	 */
+	public static Either<CommandResult> runCommand(
+			final Context context,
+			final String command,
+			final File path,
+			final List<String> arguments,
+			final StreamProcessor processor) {
 		try {
 			final List<String> commandAndArgs = new ArrayList<String>();
 			commandAndArgs.add(command);
@@ -255,12 +445,28 @@ public class Utils {
 			if (path != null) {
 				pb.directory(path);
 			}
+			final long start = System.nanoTime();
 			final Process compilation = pb.start();
-			final ConsumeStream result = ConsumeStream.start(compilation.getInputStream(), context);
+			final ConsumeStream result = processor == null
+					? ConsumeStream.start(compilation.getInputStream(), context)
+					: new ConsumeStream();
 			final ConsumeStream error = ConsumeStream.start(compilation.getErrorStream(), context);
-			compilation.waitFor();
-			result.join();
-			error.join();
+			try {
+				if (processor != null) {
+					processor.process(compilation.getInputStream());
+				}
+				compilation.waitFor();
+				result.join();
+				error.join();
+			} catch (InterruptedException ex) {
+				compilation.destroy();
+				throw ex;
+			} catch (IOException ex) {
+				compilation.destroy();
+				throw ex;
+			} finally {
+				Instrumentation.childProcess(System.nanoTime() - start);
+			}
 			if (result.exception != null) {
 				return Either.fail(result.exception);
 			}
@@ -275,6 +481,24 @@ public class Utils {
 		}
 	}
 
+	public static Either<Process> startProcess(final Context context, final String command, final File path, final List<String> arguments) {
+		try {
+			final List<String> commandAndArgs = new ArrayList<String>();
+			commandAndArgs.add(command);
+			commandAndArgs.addAll(arguments);
+			final ProcessBuilder pb = new ProcessBuilder(commandAndArgs);
+			if (path != null) {
+				pb.directory(path);
+			}
+			final Process process = pb.start();
+			ConsumeStream.drain(process.getInputStream(), context);
+			ConsumeStream.drain(process.getErrorStream(), context);
+			return Either.success(process);
+		} catch (IOException ex) {
+			return Either.fail(ex);
+		}
+	}
+
 	public static void deletePath(final File path) throws IOException {
 		deletePathAndRetry(path, 3);
 	}
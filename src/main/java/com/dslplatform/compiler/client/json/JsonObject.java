@@ -14,6 +14,7 @@ import java.io.IOException;
 import java.io.ObjectInputStream;
 import java.io.Reader;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.Iterator;
 import java.util.List;
@@ -318,9 +319,9 @@ public class JsonObject extends JsonValue implements Iterable<Member> {
     if( value == null ) {
       throw new NullPointerException( "value is null" );
     }
-    table.add( name, names.size() );
     names.add( name );
     values.add( value );
+    table.add( name, names.size() - 1 );
     return this;
   }
 
@@ -483,9 +484,9 @@ public class JsonObject extends JsonValue implements Iterable<Member> {
     if( index != -1 ) {
       values.set( index, value );
     } else {
-      table.add( name, names.size() );
       names.add( name );
       values.add( value );
+      table.add( name, names.size() - 1 );
     }
     return this;
   }
@@ -505,9 +506,9 @@ public class JsonObject extends JsonValue implements Iterable<Member> {
     }
     int index = indexOf( name );
     if( index != -1 ) {
-      table.remove( index );
       names.remove( index );
       values.remove( index );
+      table.remove( index );
     }
     return this;
   }
@@ -560,7 +561,8 @@ public class JsonObject extends JsonValue implements Iterable<Member> {
 
   /**
    * Returns an iterator over the members of this object in document order. The returned iterator
-   * cannot be used to modify this object.
+   * cannot be used to modify this object. Each member holds both the name and the value, so
+   * iterating over members should be preferred to looking up values of all <code>names()</code>.
    *
    * @return an iterator over the members of this object
    */
@@ -625,10 +627,16 @@ public class JsonObject extends JsonValue implements Iterable<Member> {
   }
 
   int indexOf( String name ) {
+    if( table.size() != names.size() ) {
+      // unmodifiable view of an object which was changed in the meantime
+      table = new HashIndexTable();
+      updateHashIndex();
+    }
     int index = table.get( name );
     if( index != -1 && name.equals( names.get( index ) ) ) {
       return index;
     }
+    // unmodifiable view of an object which was changed without changing its size
     return names.lastIndexOf( name );
   }
 
@@ -703,45 +711,89 @@ public class JsonObject extends JsonValue implements Iterable<Member> {
 
   }
 
+  /**
+   * Index of member names. Each bucket points to the last added member with a matching hash,
+   * which is chained to the previously added member in the same bucket. This way lookups are
+   * constant time and the last member with a given name is found first.
+   */
   static class HashIndexTable {
 
-    private final byte[] hashTable = new byte[32]; // must be a power of two
+    private static final int INITIAL_CAPACITY = 16; // must be a power of two
+
+    private int[] buckets; // index + 1, 0 stands for empty
+    private int[] chain; // index + 1 of the previous member in the same bucket, 0 for end of chain
+    private String[] keys;
+    private int size;
 
     public HashIndexTable() {
+      buckets = new int[INITIAL_CAPACITY];
+      chain = new int[INITIAL_CAPACITY];
+      keys = new String[INITIAL_CAPACITY];
     }
 
     public HashIndexTable( HashIndexTable original ) {
-      System.arraycopy( original.hashTable, 0, hashTable, 0, hashTable.length );
+      buckets = original.buckets.clone();
+      chain = original.chain.clone();
+      keys = original.keys.clone();
+      size = original.size;
+    }
+
+    int size() {
+      return size;
     }
 
     void add( String name, int index ) {
-      int slot = hashSlotFor( name );
-      if( index < 0xff ) {
-        // increment by 1, 0 stands for empty
-        hashTable[slot] = (byte)( index + 1 );
+      if( index != size ) {
+        // out of sync with the object, will be rebuilt on next lookup
+        return;
+      }
+      if( size == keys.length ) {
+        keys = Arrays.copyOf( keys, size * 2 );
+        chain = Arrays.copyOf( chain, size * 2 );
+      }
+      keys[size] = name;
+      size++;
+      if( size > buckets.length - ( buckets.length >> 2 ) ) {
+        rehash( buckets.length * 2 );
       } else {
-        hashTable[slot] = 0;
+        link( index );
       }
     }
 
     void remove( int index ) {
-      for( int i = 0; i < hashTable.length; i++ ) {
-        if( hashTable[i] == index + 1 ) {
-          hashTable[i] = 0;
-        } else if( hashTable[i] > index + 1 ) {
-          hashTable[i]--;
+      System.arraycopy( keys, index + 1, keys, index, size - index - 1 );
+      size--;
+      keys[size] = null;
+      rehash( buckets.length );
+    }
+
+    int get( Object name ) {
+      for( int i = buckets[hashSlotFor( name )]; i != 0; i = chain[i - 1] ) {
+        if( name.equals( keys[i - 1] ) ) {
+          return i - 1;
         }
       }
+      return -1;
     }
 
-    int get( Object name ) {
-      int slot = hashSlotFor( name );
-      // subtract 1, 0 stands for empty
-      return ( hashTable[slot] & 0xff ) - 1;
+    private void link( int index ) {
+      int slot = hashSlotFor( keys[index] );
+      chain[index] = buckets[slot];
+      buckets[slot] = index + 1;
+    }
+
+    private void rehash( int capacity ) {
+      buckets = new int[capacity];
+      for( int i = 0; i < size; i++ ) {
+        link( i );
+      }
     }
 
     private int hashSlotFor( Object element ) {
-      return element.hashCode() & hashTable.length - 1;
+      int hash = element.hashCode();
+      // spread higher bits, since similar names often differ only in the last characters
+      hash ^= hash >>> 16;
+      return hash & buckets.length - 1;
     }
 
   }
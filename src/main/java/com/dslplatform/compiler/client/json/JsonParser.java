@@ -13,9 +13,61 @@ package com.dslplatform.compiler.client.json;
 import java.io.IOException;
 import java.io.Reader;
 import java.io.StringReader;
+import java.io.Writer;
 
 
-class JsonParser {
+/**
+ * Parser for JSON input.
+ * <p>
+ * Besides building a tree of {@link JsonValue}s, it can be used as a pull parser through {@link #next()},
+ * which streams string values directly to writers provided by the caller. This allows processing of large
+ * documents without materializing their content in memory.
+ * </p>
+ */
+public class JsonParser {
+
+  /**
+   * Receives members of an object which is streamed with {@link JsonParser#parseStringMembers}.
+   */
+  public interface StringMemberHandler {
+
+    /**
+     * Called for each member of the object, before its value is read.
+     *
+     * @param name
+     *          the name of the member
+     * @return the writer to which the string value will be written and then closed, or
+     *         <code>null</code> to skip the value
+     * @throws IOException
+     *           if the writer can't be created
+     */
+    Writer member( String name ) throws IOException;
+
+  }
+
+  /**
+   * Events returned by {@link JsonParser#next()}.
+   */
+  public enum Event {
+    START_OBJECT,
+    END_OBJECT,
+    START_ARRAY,
+    END_ARRAY,
+    NAME,
+    STRING,
+    NUMBER,
+    TRUE,
+    FALSE,
+    NULL,
+    END
+  }
+
+  private static final int STATE_START = 0;
+  private static final int STATE_FIRST_MEMBER = 1;
+  private static final int STATE_MEMBER_VALUE = 2;
+  private static final int STATE_FIRST_ELEMENT = 3;
+  private static final int STATE_AFTER_VALUE = 4;
+  private static final int STATE_END = 5;
 
   private static final int MIN_BUFFER_SIZE = 10;
   private static final int DEFAULT_BUFFER_SIZE = 1024;
@@ -29,7 +81,13 @@ class JsonParser {
   private int lineOffset;
   private int current;
   private StringBuilder captureBuffer;
+  private Writer captureWriter;
   private int captureStart;
+  private int state;
+  private boolean[] containers = new boolean[8];
+  private int depth;
+  private boolean pendingString;
+  private String value;
 
   /*
    * |                      bufferOffset
@@ -45,11 +103,30 @@ class JsonParser {
           Math.max( MIN_BUFFER_SIZE, Math.min( DEFAULT_BUFFER_SIZE, string.length() ) ) );
   }
 
-  JsonParser( Reader reader ) {
+  /**
+   * Creates a parser for the given reader.
+   * <p>
+   * Characters are read in chunks and buffered internally, therefore wrapping an existing reader in
+   * an additional <code>BufferedReader</code> does <strong>not</strong> improve reading
+   * performance.
+   * </p>
+   *
+   * @param reader
+   *          the reader to parse JSON from
+   */
+  public JsonParser( Reader reader ) {
     this( reader, DEFAULT_BUFFER_SIZE );
   }
 
-  JsonParser( Reader reader, int buffersize ) {
+  /**
+   * Creates a parser for the given reader, with the specified size of the internal buffer.
+   *
+   * @param reader
+   *          the reader to parse JSON from
+   * @param buffersize
+   *          the size of the internal buffer
+   */
+  public JsonParser( Reader reader, int buffersize ) {
     this.reader = reader;
     buffer = new char[ buffersize ];
     line = 1;
@@ -67,6 +144,222 @@ class JsonParser {
     return result;
   }
 
+  /**
+   * Returns the next event from the input, without building a tree.
+   * <p>
+   * For {@link Event#NAME} and {@link Event#NUMBER} events, the value is available through
+   * {@link #getString()}. For {@link Event#STRING} events, the value is not read until
+   * {@link #getString()} or {@link #readString(Writer)} is called, so large strings can be
+   * streamed without keeping them in memory. If neither is called, the value is skipped.
+   * </p>
+   *
+   * @return the next event, {@link Event#END} when the whole document has been read
+   * @throws IOException
+   *           if an I/O error occurs in the reader
+   * @throws ParseException
+   *           if the input is not valid JSON
+   */
+  public Event next() throws IOException {
+    if( pendingString ) {
+      readStringInternal();
+      pendingString = false;
+    }
+    value = null;
+    switch( state ) {
+    case STATE_START:
+      read();
+      skipWhiteSpace();
+      return readValueEvent();
+    case STATE_FIRST_MEMBER:
+      skipWhiteSpace();
+      if( readChar( '}' ) ) {
+        return endContainer( Event.END_OBJECT );
+      }
+      return readNameEvent();
+    case STATE_FIRST_ELEMENT:
+      skipWhiteSpace();
+      if( readChar( ']' ) ) {
+        return endContainer( Event.END_ARRAY );
+      }
+      return readValueEvent();
+    case STATE_MEMBER_VALUE:
+      skipWhiteSpace();
+      if( !readChar( ':' ) ) {
+        throw expected( "':'" );
+      }
+      skipWhiteSpace();
+      return readValueEvent();
+    case STATE_AFTER_VALUE:
+      skipWhiteSpace();
+      if( depth == 0 ) {
+        if( !isEndOfText() ) {
+          throw error( "Unexpected character" );
+        }
+        state = STATE_END;
+        return Event.END;
+      }
+      boolean inObject = containers[depth - 1];
+      if( readChar( ',' ) ) {
+        skipWhiteSpace();
+        return inObject ? readNameEvent() : readValueEvent();
+      }
+      if( inObject ) {
+        if( readChar( '}' ) ) {
+          return endContainer( Event.END_OBJECT );
+        }
+        throw expected( "',' or '}'" );
+      }
+      if( readChar( ']' ) ) {
+        return endContainer( Event.END_ARRAY );
+      }
+      throw expected( "',' or ']'" );
+    default:
+      return Event.END;
+    }
+  }
+
+  /**
+   * Returns the value of the current {@link Event#NAME}, {@link Event#STRING} or
+   * {@link Event#NUMBER} event.
+   *
+   * @return the name, the string value or the number as it appears in the input
+   * @throws IOException
+   *           if an I/O error occurs while reading a pending string
+   * @throws IllegalStateException
+   *           if the current event has no value
+   */
+  public String getString() throws IOException {
+    if( pendingString ) {
+      value = readStringInternal();
+      pendingString = false;
+    }
+    if( value == null ) {
+      throw new IllegalStateException( "Current event has no value" );
+    }
+    return value;
+  }
+
+  /**
+   * Reads the value of the current {@link Event#STRING} event into the given writer.
+   * The value is unescaped and written in chunks, so it is never kept in memory as a whole.
+   * The writer is not closed.
+   *
+   * @param writer
+   *          the writer to which the string value is written
+   * @throws IOException
+   *           if an I/O error occurs in the reader or the writer
+   * @throws IllegalStateException
+   *           if the current event is not a string or the string was already read
+   */
+  public void readString( Writer writer ) throws IOException {
+    if( !pendingString ) {
+      throw new IllegalStateException( "No string value to read" );
+    }
+    pendingString = false;
+    readStringInternal( writer );
+  }
+
+  /**
+   * Reads a JSON object whose member values are all strings, without building a tree.
+   * The value of each member is written to the writer provided by the handler and is never
+   * kept in memory as a whole.
+   *
+   * @param handler
+   *          the handler which provides a writer for each member
+   * @throws IOException
+   *           if an I/O error occurs in the reader or in one of the writers
+   * @throws ParseException
+   *           if the input is not a valid JSON object with string values
+   */
+  public void parseStringMembers( StringMemberHandler handler ) throws IOException {
+    if( next() != Event.START_OBJECT ) {
+      throw expected( "'{'" );
+    }
+    while( next() == Event.NAME ) {
+      String name = getString();
+      if( next() != Event.STRING ) {
+        throw expected( "string" );
+      }
+      Writer writer = handler.member( name );
+      if( writer != null ) {
+        try {
+          readString( writer );
+        } finally {
+          writer.close();
+        }
+      }
+    }
+    next();
+  }
+
+  private Event readNameEvent() throws IOException {
+    value = readName();
+    state = STATE_MEMBER_VALUE;
+    return Event.NAME;
+  }
+
+  private Event readValueEvent() throws IOException {
+    switch( current ) {
+    case 'n':
+      readNull();
+      state = STATE_AFTER_VALUE;
+      return Event.NULL;
+    case 't':
+      readTrue();
+      state = STATE_AFTER_VALUE;
+      return Event.TRUE;
+    case 'f':
+      readFalse();
+      state = STATE_AFTER_VALUE;
+      return Event.FALSE;
+    case '"':
+      pendingString = true;
+      state = STATE_AFTER_VALUE;
+      return Event.STRING;
+    case '[':
+      read();
+      startContainer( false );
+      state = STATE_FIRST_ELEMENT;
+      return Event.START_ARRAY;
+    case '{':
+      read();
+      startContainer( true );
+      state = STATE_FIRST_MEMBER;
+      return Event.START_OBJECT;
+    case '-':
+    case '0':
+    case '1':
+    case '2':
+    case '3':
+    case '4':
+    case '5':
+    case '6':
+    case '7':
+    case '8':
+    case '9':
+      value = readNumber().toString();
+      state = STATE_AFTER_VALUE;
+      return Event.NUMBER;
+    default:
+      throw expected( "value" );
+    }
+  }
+
+  private void startContainer( boolean object ) {
+    if( depth == containers.length ) {
+      boolean[] newContainers = new boolean[containers.length * 2];
+      System.arraycopy( containers, 0, newContainers, 0, depth );
+      containers = newContainers;
+    }
+    containers[depth++] = object;
+  }
+
+  private Event endContainer( Event event ) {
+    depth--;
+    state = STATE_AFTER_VALUE;
+    return event;
+  }
+
   private JsonValue readValue() throws IOException {
     switch( current ) {
     case 'n':
@@ -201,28 +494,56 @@ class JsonParser {
     return string;
   }
 
+  private void readStringInternal( Writer writer ) throws IOException {
+    captureWriter = writer;
+    try {
+      read();
+      startCapture();
+      while( current != '"' ) {
+        if( current == '\\' ) {
+          pauseCapture();
+          captureWriter.write( readEscapeChar() );
+          startCapture();
+        } else if( current < 0x20 ) {
+          throw expected( "valid string character" );
+        } else {
+          read();
+        }
+      }
+      pauseCapture();
+      read();
+    } finally {
+      captureWriter = null;
+    }
+  }
+
   private void readEscape() throws IOException {
+    captureBuffer.append( readEscapeChar() );
+  }
+
+  private char readEscapeChar() throws IOException {
     read();
+    char result;
     switch( current ) {
     case '"':
     case '/':
     case '\\':
-      captureBuffer.append( (char)current );
+      result = (char)current;
       break;
     case 'b':
-      captureBuffer.append( '\b' );
+      result = '\b';
       break;
     case 'f':
-      captureBuffer.append( '\f' );
+      result = '\f';
       break;
     case 'n':
-      captureBuffer.append( '\n' );
+      result = '\n';
       break;
     case 'r':
-      captureBuffer.append( '\r' );
+      result = '\r';
       break;
     case 't':
-      captureBuffer.append( '\t' );
+      result = '\t';
       break;
     case 'u':
       char[] hexChars = new char[4];
@@ -233,12 +554,13 @@ class JsonParser {
         }
         hexChars[i] = (char)current;
       }
-      captureBuffer.append( (char)Integer.parseInt( String.valueOf( hexChars ), 16 ) );
+      result = (char)Integer.parseInt( String.valueOf( hexChars ), 16 );
       break;
     default:
       throw expected( "valid escape sequence" );
     }
     read();
+    return result;
   }
 
   private JsonValue readNumber() throws IOException {
@@ -312,7 +634,11 @@ class JsonParser {
     }
     if( index == fill ) {
       if( captureStart != -1 ) {
-        captureBuffer.append( buffer, captureStart, fill - captureStart );
+        if( captureWriter != null ) {
+          captureWriter.write( buffer, captureStart, fill - captureStart );
+        } else {
+          captureBuffer.append( buffer, captureStart, fill - captureStart );
+        }
         captureStart = 0;
       }
       bufferOffset += fill;
@@ -337,9 +663,13 @@ class JsonParser {
     captureStart = index - 1;
   }
 
-  private void pauseCapture() {
+  private void pauseCapture() throws IOException {
     int end = current == -1 ? index : index - 1;
-    captureBuffer.append( buffer, captureStart, end - captureStart );
+    if( captureWriter != null ) {
+      captureWriter.write( buffer, captureStart, end - captureStart );
+    } else {
+      captureBuffer.append( buffer, captureStart, end - captureStart );
+    }
     captureStart = -1;
   }
 
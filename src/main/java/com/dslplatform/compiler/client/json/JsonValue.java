@@ -10,7 +10,10 @@
  ******************************************************************************/
 package com.dslplatform.compiler.client.json;
 
+import java.io.BufferedWriter;
 import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
 import java.io.Reader;
 import java.io.Serializable;
 import java.io.StringWriter;
@@ -394,6 +397,24 @@ public abstract class JsonValue implements Serializable {
     write( new JsonWriter( writer ) );
   }
 
+  /**
+   * Writes the JSON representation for this object to the given stream, encoded as UTF-8.
+   * <p>
+   * Output is buffered and encoded in chunks, so no string or byte array with the whole JSON
+   * representation is created. The stream is flushed, but not closed.
+   * </p>
+   *
+   * @param stream
+   *          the stream to write this value to
+   * @throws IOException
+   *           if an I/O error occurs in the stream
+   */
+  public void writeTo( OutputStream stream ) throws IOException {
+    Writer writer = new BufferedWriter( new OutputStreamWriter( stream, "UTF-8" ), 8192 );
+    write( new JsonWriter( writer ) );
+    writer.flush();
+  }
+
   /**
    * Returns the JSON string for this value in its minimal form, without any additional whitespace.
    * The result is guaranteed to be a valid input for the method {@link #readFrom(String)} and to
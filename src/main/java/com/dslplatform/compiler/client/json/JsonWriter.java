@@ -45,17 +45,20 @@ class JsonWriter {
     writer.write( '"' );
     int length = string.length();
     int start = 0;
-    char[] chars = new char[ length ];
-    string.getChars( 0, length, chars, 0 );
     for( int index = 0; index < length; index++ ) {
-      char[] replacement = getReplacementChars( chars[index] );
+      char ch = string.charAt( index );
+      // characters which don't need escaping are written in bulk, as a single run
+      if( ch >= ' ' && ch != '"' && ch != '\\' && ( ch < '\u2028' || ch > '\u2029' ) ) {
+        continue;
+      }
+      char[] replacement = getReplacementChars( ch );
       if( replacement != null ) {
-        writer.write( chars, start, index - start );
+        writer.write( string, start, index - start );
         writer.write( replacement );
-        start = index+1;
+        start = index + 1;
       }
     }
-    writer.write( chars, start, length - start );
+    writer.write( string, start, length - start );
     writer.write( '"' );
   }
 
@@ -0,0 +1,230 @@
+package com.dslplatform.compiler.client.parameters;
+
+import com.dslplatform.compiler.client.*;
+import com.dslplatform.compiler.client.parameters.build.BuildOutput;
+
+import javax.xml.bind.DatatypeConverter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.MessageDigest;
+import java.util.*;
+
+public enum BuildCache implements CompileParameter, ParameterParser {
+	INSTANCE;
+
+	@Override
+	public String getAlias() { return "build-cache"; }
+	@Override
+	public String getUsage() { return "path"; }
+
+	private static final String CACHE_NAME = "build_cache_keys";
+
+	private static File getCachePath(final Context context) {
+		final String value = context.get(INSTANCE);
+		if (value != null && value.length() > 0) {
+			return new File(value);
+		}
+		return new File(new File(System.getProperty("user.home"), ".dsl-platform"), "build-cache");
+	}
+
+	private static String compilerVersion(final Context context) throws ExitException, IOException {
+		final File compiler = DslCompiler.getCompiler(context);
+		final MessageDigest digest = Utils.sha1Digest();
+		final InputStream is = new FileInputStream(compiler);
+		try {
+			final byte[] buffer = new byte[8192];
+			int len;
+			while ((len = is.read(buffer)) != -1) {
+				digest.update(buffer, 0, len);
+			}
+		} finally {
+			is.close();
+		}
+		return DatatypeConverter.printHexBinary(digest.digest());
+	}
+
+	private static byte[] sharedKey(final Context context) throws ExitException, IOException {
+		final MessageDigest digest = Utils.sha1Digest();
+		Utils.updateDigest(digest, Main.getVersion());
+		Utils.updateDigest(digest, compilerVersion(context));
+		Utils.updateDigest(digest, context.get(Namespace.INSTANCE));
+		final List<Settings.Option> settings = Settings.get(context);
+		if (settings != null) {
+			for (final Settings.Option o : settings) {
+				Utils.updateDigest(digest, o.toString());
+			}
+		}
+		Utils.updateDigest(digest, context.contains(IncludeSources.INSTANCE) ? "sources" : "");
+		final Map<String, String> dsls = new TreeMap<String, String>(DslPath.getCurrentDsl(context));
+		for (final Map.Entry<String, String> kv : dsls.entrySet()) {
+			Utils.updateDigest(digest, kv.getKey());
+			Utils.updateDigest(digest, kv.getValue());
+		}
+		return digest.digest();
+	}
+
+	private static String targetKey(final byte[] shared, final Targets.Option target) {
+		final MessageDigest digest = Utils.sha1Digest();
+		digest.update(shared);
+		Utils.updateDigest(digest, target.value);
+		return DatatypeConverter.printHexBinary(digest.digest()).toLowerCase();
+	}
+
+	/**
+	 * Restore outputs of targets which were already built from the same DSL, settings and compiler.
+	 *
+	 * @return targets which were not found in the cache and still need to be built
+	 */
+	public static List<Targets.Option> restore(final Context context, final List<Targets.Option> targets) throws ExitException {
+		if (!context.contains(INSTANCE)) {
+			return targets;
+		}
+		if (!context.contains(DslCompiler.INSTANCE)) {
+			context.log("Build cache is used only with local compiler. Online compilation output can change without DSL changes.");
+			return targets;
+		}
+		final byte[] shared;
+		try {
+			shared = sharedKey(context);
+		} catch (IOException ex) {
+			context.error("Unable to calculate build cache key. Build cache will not be used.");
+			context.error(ex);
+			return targets;
+		}
+		final File cachePath = getCachePath(context);
+		final Map<Targets.Option, String> keys = new HashMap<Targets.Option, String>();
+		final List<Targets.Option> remaining = new ArrayList<Targets.Option>();
+		for (final Targets.Option t : targets) {
+			if (!(t.getAction() instanceof BuildOutput)) {
+				remaining.add(t);
+				continue;
+			}
+			final String key = targetKey(shared, t);
+			keys.put(t, key);
+			final File entry = new File(cachePath, key);
+			final List<File> outputs = ((BuildOutput) t.getAction()).getOutputs(context);
+			boolean found = entry.isDirectory();
+			for (final File o : outputs) {
+				found = found && new File(entry, o.getName()).isFile();
+			}
+			if (!found) {
+				remaining.add(t);
+				continue;
+			}
+			try {
+				for (final File o : outputs) {
+					final File temp = new File(o.getAbsolutePath() + ".tmp");
+					Utils.copyFile(new File(entry, o.getName()), temp);
+					if (o.exists() && !o.delete() || !temp.renameTo(o)) {
+						throw new IOException("Unable to replace " + o.getAbsolutePath());
+					}
+				}
+				context.show("Restored " + t.value + " from build cache: " + outputs.get(0).getAbsolutePath());
+			} catch (IOException ex) {
+				context.error("Failed to restore " + t.value + " from build cache.");
+				context.error(ex);
+				remaining.add(t);
+			}
+		}
+		context.cache(CACHE_NAME, keys);
+		return remaining;
+	}
+
+	/**
+	 * Save outputs of successfully built targets to the build cache.
+	 */
+	public static void store(final Context context, final List<Targets.Option> targets) {
+		final Map<Targets.Option, String> keys = context.load(CACHE_NAME);
+		if (keys == null) {
+			return;
+		}
+		final File cachePath = getCachePath(context);
+		for (final Targets.Option t : targets) {
+			final String key = keys.get(t);
+			if (key == null) {
+				continue;
+			}
+			final List<File> outputs = ((BuildOutput) t.getAction()).getOutputs(context);
+			final File entry = new File(cachePath, key);
+			final File temp = new File(cachePath, key + "-" + UUID.randomUUID().toString());
+			try {
+				if (!temp.mkdirs()) {
+					throw new IOException("Unable to create build cache folder: " + temp.getAbsolutePath());
+				}
+				for (final File o : outputs) {
+					if (!o.isFile()) {
+						throw new IOException("Missing build output: " + o.getAbsolutePath());
+					}
+					Utils.copyFile(o, new File(temp, o.getName()));
+				}
+				if (entry.exists()) {
+					Utils.deletePath(entry);
+					entry.delete();
+				}
+				if (!temp.renameTo(entry)) {
+					throw new IOException("Unable to move build cache folder to: " + entry.getAbsolutePath());
+				}
+				context.log("Saved " + t.value + " to build cache: " + entry.getAbsolutePath());
+			} catch (IOException ex) {
+				context.log("Failed to save " + t.value + " to build cache. " + ex.getMessage());
+			}
+			if (temp.exists()) {
+				try {
+					Utils.deletePath(temp);
+				} catch (IOException ignore) {
+				}
+				temp.delete();
+			}
+		}
+	}
+
+	@Override
+	public Either<Boolean> tryParse(final String name, final String value, final Context context) {
+		if ("build-cache".equalsIgnoreCase(name)) {
+			context.put(INSTANCE, value);
+			return Either.success(true);
+		}
+		return Either.success(false);
+	}
+
+	@Override
+	public boolean check(final Context context) {
+		if (context.contains(INSTANCE)) {
+			final File path = getCachePath(context);
+			if (path.exists() && !path.isDirectory()) {
+				context.error("Build cache path is not a directory: " + path.getAbsolutePath());
+				return false;
+			}
+			if (!path.exists() && !path.mkdirs()) {
+				context.error("Failed to create build cache path: " + path.getAbsolutePath());
+				return false;
+			}
+		}
+		return true;
+	}
+
+	@Override
+	public void run(final Context context) {
+	}
+
+	@Override
+	public String getShortDescription() {
+		return "Reuse previously compiled libraries when DSL, settings and compiler didn't change";
+	}
+
+	@Override
+	public String getDetailedDescription() {
+		return "Compiled libraries (jars and dlls) are stored in a local build cache.\n" +
+				"Cache key is calculated from DSL, settings, namespace, target and compiler version.\n" +
+				"When matching entry is found, library is restored from cache without running the compiler.\n" +
+				"Targets which only produce sources (such as PHP) are always compiled.\n" +
+				"Cache is used only with local compiler, since online compiler version is not known.\n" +
+				"When path is not specified, .dsl-platform/build-cache in user home will be used.\n" +
+				"\n" +
+				"Example:\n" +
+				"	-compiler -build-cache\n" +
+				"	-compiler -build-cache=/var/cache/dsl-platform";
+	}
+}
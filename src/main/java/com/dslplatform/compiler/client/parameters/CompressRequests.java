@@ -0,0 +1,36 @@
+package com.dslplatform.compiler.client.parameters;
+
+import com.dslplatform.compiler.client.CompileParameter;
+import com.dslplatform.compiler.client.Context;
+
+public enum CompressRequests implements CompileParameter {
+	INSTANCE;
+
+	@Override
+	public String getAlias() { return "compress-requests"; }
+	@Override
+	public String getUsage() { return null; }
+
+	@Override
+	public boolean check(final Context context) {
+		return true;
+	}
+
+	@Override
+	public void run(final Context context) {
+	}
+
+	@Override
+	public String getShortDescription() {
+		return "Send gzip compressed requests to DSL Platform";
+	}
+
+	@Override
+	public String getDetailedDescription() {
+		return "Requests to DSL Platform (with DSL files) are compressed with Content-Encoding: gzip.\n" +
+				"This reduces upload time for large models on slow connections.\n" +
+				"If the server rejects compressed request with 415 Unsupported Media Type, request is sent again uncompressed.\n" +
+				"Other errors are reported as usual, so don't use this option when a proxy doesn't accept compressed requests.\n" +
+				"Responses are always compressed when the server supports it.";
+	}
+}
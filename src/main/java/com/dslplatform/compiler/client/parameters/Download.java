@@ -7,6 +7,7 @@ import org.w3c.dom.Element;
 import java.io.File;
 import java.io.FilenameFilter;
 import java.io.IOException;
+import java.io.InputStream;
 import java.net.URL;
 import java.util.Arrays;
 
@@ -86,7 +87,13 @@ public enum Download implements CompileParameter {
 			context.show("Downloading " + name + " from Sonatype...");
 			try {
 				final URL maven = new URL("https://oss.sonatype.org/content/repositories/releases/com/dslplatform/" + library + "/maven-metadata.xml");
-				final Either<Document> doc = Utils.readXml(maven.openConnection().getInputStream());
+				final InputStream metadata = HttpTransport.open(maven).getInputStream();
+				final Either<Document> doc;
+				try {
+					doc = Utils.readXml(metadata);
+				} finally {
+					HttpTransport.release(metadata);
+				}
 				if (!doc.isSuccess()) {
 					context.error("Error downloading library info from Sonatype.");
 					context.error(doc.whyNot());
@@ -97,32 +104,37 @@ public enum Download implements CompileParameter {
 				final String version = versioning.getElementsByTagName("release").item(0).getTextContent();
 				final String sharedUrl = "https://oss.sonatype.org/content/repositories/releases/com/dslplatform/" +
 						library + "/" + version + "/" + library + "-" + version;
-				final URL pomUrl = new URL(sharedUrl + ".pom");
-				final File pomFile = new File(dependencies, library + "-" + version + ".pom");
-				Utils.downloadFile(pomFile, pomUrl);
-				final URL jarUrl = new URL(sharedUrl + ".jar");
-				Utils.downloadFile(new File(dependencies, library + "-" + version + ".jar"), jarUrl);
-				context.show("Downloading " + name + " library dependencies with Maven...");
-				final Either<Utils.CommandResult> gatherDeps =
-						Utils.runCommand(
-								context,
-								tryMaven.get(),
-								pomFile.getParentFile(),
-								Arrays.asList(
-										"dependency:copy-dependencies",
-										"\"-DoutputDirectory=" + dependencies.getAbsolutePath() + "\"",
-										"\"-f=" + pomFile.getAbsolutePath() + "\""));
-				if (!gatherDeps.isSuccess()) {
-					context.error("Error gathering dependencies with Maven.");
-					context.error(gatherDeps.whyNot());
-					return promptForAlternative(dependencies, context, name, zip);
-				}
-				final String result = gatherDeps.get().output + gatherDeps.get().error;
-				if (!result.contains("BUILD SUCCESS")) {
-					context.error("Maven error during dependency download.");
-					context.show(result);
-					return promptForAlternative(dependencies, context, name, zip);
-				}
+				final String mavenCommand = tryMaven.get();
+				final File cached = ArtifactCache.resolve(context, library, version, new ArtifactCache.Installer() {
+					@Override
+					public void install(final File folder) throws IOException {
+						final URL pomUrl = new URL(sharedUrl + ".pom");
+						final File pomFile = new File(folder, library + "-" + version + ".pom");
+						Utils.downloadFile(context, pomFile, pomUrl, Downloader.findChecksum(context, new URL(sharedUrl + ".pom.sha1")));
+						final URL jarUrl = new URL(sharedUrl + ".jar");
+						final File jarFile = new File(folder, library + "-" + version + ".jar");
+						Utils.downloadFile(context, jarFile, jarUrl, Downloader.findChecksum(context, new URL(sharedUrl + ".jar.sha1")));
+						context.show("Downloading " + name + " library dependencies with Maven...");
+						final Either<Utils.CommandResult> gatherDeps =
+								Utils.runCommand(
+										context,
+										mavenCommand,
+										folder,
+										Arrays.asList(
+												"dependency:copy-dependencies",
+												"\"-DoutputDirectory=" + folder.getAbsolutePath() + "\"",
+												"\"-f=" + pomFile.getAbsolutePath() + "\""));
+						if (!gatherDeps.isSuccess()) {
+							throw new IOException("Error gathering dependencies with Maven. " + gatherDeps.explainError());
+						}
+						final String result = gatherDeps.get().output + gatherDeps.get().error;
+						if (!result.contains("BUILD SUCCESS")) {
+							context.show(result);
+							throw new IOException("Maven error during dependency download.");
+						}
+					}
+				});
+				ArtifactCache.materialize(context, cached, dependencies);
 			} catch (IOException ex) {
 				context.error("Unable to download " + name + " from Sonatype.");
 				context.error(ex);
@@ -148,6 +160,8 @@ public enum Download implements CompileParameter {
 
 	@Override
 	public String getDetailedDescription() {
-		return "Always download missing dependencies.";
+		return "Always download missing dependencies.\n" +
+				"Downloaded compiler and libraries are kept in ~/.dsl-platform/cache and shared by all projects.\n" +
+				"They are hard linked into project dependency folders when supported, otherwise they are copied.";
 	}
 }
@@ -0,0 +1,36 @@
+package com.dslplatform.compiler.client.parameters;
+
+import com.dslplatform.compiler.client.CompileParameter;
+import com.dslplatform.compiler.client.Context;
+
+public enum DslCache implements CompileParameter {
+	INSTANCE;
+
+	@Override
+	public String getAlias() { return "dsl-cache"; }
+	@Override
+	public String getUsage() { return null; }
+
+	@Override
+	public boolean check(final Context context) {
+		return true;
+	}
+
+	@Override
+	public void run(final Context context) {
+	}
+
+	@Override
+	public String getShortDescription() {
+		return "Upload only DSL files which DSL Platform doesn't have cached";
+	}
+
+	@Override
+	public String getDetailedDescription() {
+		return "Before online compilation, parse or migration, hashes of DSL files are sent to DSL Platform.\n" +
+				"Files which server already has are sent as references instead of their content.\n" +
+				"If server doesn't support DSL cache, all files are uploaded as usual\n" +
+				"and this is remembered in ~/.dsl-platform/dsl-cache-unsupported, so the check is not repeated.\n" +
+				"Delete that file to check again.";
+	}
+}
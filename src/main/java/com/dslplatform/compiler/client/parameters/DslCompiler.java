@@ -1,19 +1,20 @@
 package com.dslplatform.compiler.client.parameters;
 
-import java.io.ByteArrayInputStream;
-import java.io.File;
-import java.io.IOException;
+import java.io.*;
 import java.nio.charset.Charset;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
 
-import org.w3c.dom.Document;
-import org.w3c.dom.Element;
-import org.w3c.dom.Node;
-import org.w3c.dom.NodeList;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
 
 import com.dslplatform.compiler.client.CompileParameter;
 import com.dslplatform.compiler.client.Context;
@@ -32,6 +33,138 @@ public enum DslCompiler implements CompileParameter, ParameterParser {
 	public String getUsage() { return "path"; }
 
 	private static Charset utf8 = Charset.forName("UTF-8");
+	private static final String DOWNLOAD_CACHE_NAME = "dsl_compiler_download";
+
+	public interface FileHandler {
+		void handle(final String name, final String content) throws IOException;
+	}
+
+	/**
+	 * Compiler output is either an XML with Key/Value pairs for each generated file
+	 * or a plain text error description.
+	 * XML is parsed as it arrives and each file is passed to the handler,
+	 * so the whole output is never kept in memory.
+	 */
+	private static class CompilerOutput implements Utils.StreamProcessor {
+		private final FileHandler handler;
+		private final StringBuilder text = new StringBuilder();
+		private boolean started;
+		private int files;
+
+		private CompilerOutput(final FileHandler handler) {
+			this.handler = handler;
+		}
+
+		private static boolean isXml(final BufferedInputStream stream) throws IOException {
+			stream.mark(1024);
+			try {
+				for (int i = 0; i < 1024; i++) {
+					final int b = stream.read();
+					if (b == '<') {
+						return true;
+					}
+					if (b != ' ' && b != '\t' && b != '\r' && b != '\n' && b != 0xEF && b != 0xBB && b != 0xBF) {
+						return false;
+					}
+				}
+				return false;
+			} finally {
+				stream.reset();
+			}
+		}
+
+		@Override
+		public void process(final InputStream stream) throws IOException {
+			started = true;
+			final BufferedInputStream bis = new BufferedInputStream(stream);
+			if (isXml(bis)) {
+				try {
+					parse(new FilterInputStream(bis) {
+						@Override
+						public void close() {
+						}
+					});
+				} catch (XMLStreamException ex) {
+					throw new IOException("Invalid xml found. " + ex.getMessage());
+				}
+				final byte[] buffer = new byte[8192];
+				while (bis.read(buffer) != -1) {
+				}
+			} else {
+				final Reader reader = new InputStreamReader(bis, utf8);
+				final char[] buffer = new char[8192];
+				int len;
+				while ((len = reader.read(buffer)) != -1) {
+					text.append(buffer, 0, len);
+				}
+			}
+		}
+
+		private void parse(final InputStream stream) throws XMLStreamException, IOException {
+			final XMLStreamReader reader = xmlFactory.createXMLStreamReader(stream);
+			try {
+				String key = null;
+				String value = null;
+				while (reader.hasNext()) {
+					if (reader.next() != XMLStreamConstants.START_ELEMENT) {
+						continue;
+					}
+					final String name = reader.getLocalName();
+					if ("Key".equals(name)) {
+						key = reader.getElementText();
+					} else if ("Value".equals(name)) {
+						value = reader.getElementText();
+					} else {
+						continue;
+					}
+					if (key != null && value != null) {
+						handler.handle(key, value);
+						files++;
+						key = null;
+						value = null;
+					}
+				}
+			} finally {
+				reader.close();
+			}
+		}
+	}
+
+	private static final XMLInputFactory xmlFactory = XMLInputFactory.newInstance();
+
+	private static Either<Utils.CommandResult> runCompiler(
+			final Context context,
+			final File compiler,
+			final List<String> arguments) throws ExitException {
+		return runCompiler(context, compiler, arguments, null);
+	}
+
+	private static Either<Utils.CommandResult> runCompiler(
+			final Context context,
+			final File compiler,
+			final List<String> arguments,
+			final CompilerOutput processor) throws ExitException {
+		if (context.contains(ServerMode.INSTANCE)) {
+			final Either<Utils.CommandResult> result = ServerMode.runCommand(context, compiler, arguments, processor);
+			if (result.isSuccess() || processor != null && processor.started) {
+				return result;
+			}
+			context.log("Unable to use DSL compiler server. Running compiler as a process.");
+			context.log(result.explainError());
+		}
+		if (Utils.isWindows()) {
+			return Utils.runCommand(context, compiler.getAbsolutePath(), compiler.getParentFile(), arguments, processor);
+		}
+		final Either<String> mono = Mono.findMono(context);
+		if (!mono.isSuccess()) {
+			context.error("Mono is required to run DSL compiler. Mono not detected or specified.");
+			throw new ExitException();
+		}
+		final List<String> monoArguments = new ArrayList<String>(arguments.size() + 1);
+		monoArguments.add(compiler.getAbsolutePath());
+		monoArguments.addAll(arguments);
+		return Utils.runCommand(context, mono.get(), compiler.getParentFile(), monoArguments, processor);
+	}
 
 	public static Map<String, String> compile(
 			final Context context,
@@ -41,6 +174,28 @@ public enum DslCompiler implements CompileParameter, ParameterParser {
 			final String namespace,
 			final List<File> dsls) throws ExitException {
 		final Map<String, String> files = new HashMap<String, String>();
+		compile(context, compiler, target, settings, namespace, dsls, new FileHandler() {
+			@Override
+			public void handle(final String name, final String content) {
+				files.put(name, content);
+			}
+		});
+		return files;
+	}
+
+	/**
+	 * Compile DSL to specified target and pass each generated file to the handler as soon as it's parsed.
+	 *
+	 * @return number of generated files
+	 */
+	public static int compile(
+			final Context context,
+			final File compiler,
+			final String target,
+			final List<Settings.Option> settings,
+			final String namespace,
+			final List<File> dsls,
+			final FileHandler handler) throws ExitException {
 		final List<String> arguments = new ArrayList<String>();
 		arguments.add("target=" + target);
 		if (namespace != null && namespace.length() > 0) {
@@ -55,72 +210,36 @@ public enum DslCompiler implements CompileParameter, ParameterParser {
 			arguments.add("dsl=" + f.getAbsolutePath());
 		}
 		context.log("Compiling DSL to " + target + "...");
-		final Either<Utils.CommandResult> result;
-		if (Utils.isWindows()) {
-			result = Utils.runCommand(context, compiler.getAbsolutePath(), compiler.getParentFile(), arguments);
-		} else {
-			final Either<String> mono = Mono.findMono(context);
-			if (mono.isSuccess()) {
-				arguments.add(0, compiler.getAbsolutePath());
-				result = Utils.runCommand(context, mono.get(), compiler.getParentFile(), arguments);
-			} else {
-				context.error("Mono is required to run DSL compiler. Mono not detected or specified.");
-				throw new ExitException();
-			}
-		}
+		final CompilerOutput output = new CompilerOutput(handler);
+		final Either<Utils.CommandResult> result = runCompiler(context, compiler, arguments, output);
 		if(!result.isSuccess()) {
 			context.error(result.explainError());
 			throw new ExitException();
 		}
 		if (result.get().exitCode != 0) {
-			context.error(result.get().output);
-			throw new ExitException();
-		}
-		final Either<Document> xml = Utils.readXml(new ByteArrayInputStream(result.get().output.getBytes(utf8)));
-		if (!xml.isSuccess()) {
-			context.error(result.get().output);
+			context.error(output.text.length() > 0 ? output.text.toString() : result.get().output);
 			throw new ExitException();
 		}
-		final NodeList nodes = xml.get().getDocumentElement().getChildNodes();
-		try {
-			for (int i = 0; i < nodes.getLength(); i++) {
-				final Element item = (Element) nodes.item(i);
-				final Node key = item.getElementsByTagName("Key").item(0);
-				final Node value = item.getElementsByTagName("Value").item(0);
-				files.put(key.getTextContent(), value.getTextContent());
-			}
-		} catch (final Exception ex) {
+		if (output.text.toString().trim().length() > 0) {
 			context.error("Invalid xml found");
-			context.log(result.get().output);
+			context.log(output.text.toString());
 			throw new ExitException();
 		}
-		return files;
+		return output.files;
 	}
 
 	public static Either<String> migration(
 			final Context context,
 			final String version,
 			final List<File> dsls) throws ExitException {
-		final File compiler = new File(context.get(INSTANCE));
+		final File compiler = getCompiler(context);
 		final List<String> arguments = new ArrayList<String>();
 		arguments.add("target=postgres" + version);
 		for (final File f : dsls) {
 			arguments.add("dsl=" + f.getAbsolutePath());
 		}
 		context.log("Creating SQL migration...");
-		final Either<Utils.CommandResult> result;
-		if (Utils.isWindows()) {
-			result = Utils.runCommand(context, compiler.getAbsolutePath(), compiler.getParentFile(), arguments);
-		} else {
-			final Either<String> mono = Mono.findMono(context);
-			if (mono.isSuccess()) {
-				arguments.add(0, compiler.getAbsolutePath());
-				result = Utils.runCommand(context, mono.get(), compiler.getParentFile(), arguments);
-			} else {
-				context.error("Mono is required to run DSL compiler. Mono not detected or specified.");
-				throw new ExitException();
-			}
-		}
+		final Either<Utils.CommandResult> result = runCompiler(context, compiler, arguments);
 		if(!result.isSuccess()) {
 			return Either.fail(result.whyNot());
 		}
@@ -131,25 +250,13 @@ public enum DslCompiler implements CompileParameter, ParameterParser {
 	}
 
 	public static Either<Boolean> parse(final Context context, final List<File> dsls) throws ExitException {
-		final File compiler = new File(context.get(INSTANCE));
+		final File compiler = getCompiler(context);
 		final List<String> arguments = new ArrayList<String>();
 		for (final File f : dsls) {
 			arguments.add("dsl=" + f.getAbsolutePath());
 		}
 		context.log("Parsing DSL...");
-		final Either<Utils.CommandResult> result;
-		if (Utils.isWindows()) {
-			result = Utils.runCommand(context, compiler.getAbsolutePath(), compiler.getParentFile(), arguments);
-		} else {
-			final Either<String> mono = Mono.findMono(context);
-			if (mono.isSuccess()) {
-				arguments.add(0, compiler.getAbsolutePath());
-				result = Utils.runCommand(context, mono.get(), compiler.getParentFile(), arguments);
-			} else {
-				context.error("Mono is required to run DSL compiler. Mono not detected or specified.");
-				throw new ExitException();
-			}
-		}
+		final Either<Utils.CommandResult> result = runCompiler(context, compiler, arguments);
 		if(!result.isSuccess()) {
 			return Either.fail(result.whyNot());
 		}
@@ -208,15 +315,12 @@ public enum DslCompiler implements CompileParameter, ParameterParser {
 					if (!answer.toLowerCase().equals("y")) throw new ExitException();
 				} else throw new ExitException();
 			}
-			try {
-				DslServer.downloadAndUnpack(context, "dsl-compiler", tempPath);
-			} catch (final IOException ex) {
-				context.error("Error downloading compiler from https://dsl-platform.com");
-				context.error(ex);
-				throw new ExitException();
+			if (context.contains(Download.INSTANCE)) {
+				downloadInBackground(context, tempPath, compiler);
+				context.put(INSTANCE, compiler.getAbsolutePath());
+				return true;
 			}
-			if (!testCompiler(context, compiler)) {
-				context.error("Specified compiler is invalid: " + path.getAbsolutePath());
+			if (!downloadCompiler(context, tempPath, compiler)) {
 				throw new ExitException();
 			}
 			context.put(INSTANCE, compiler.getAbsolutePath());
@@ -229,6 +333,77 @@ public enum DslCompiler implements CompileParameter, ParameterParser {
 		return true;
 	}
 
+	private static boolean downloadCompiler(final Context context, final File tempPath, final File compiler) throws ExitException {
+		try {
+			DslServer.downloadAndUnpack(context, "dsl-compiler", tempPath);
+		} catch (final IOException ex) {
+			context.error("Error downloading compiler from https://dsl-platform.com");
+			context.error(ex);
+			return false;
+		}
+		if (!testCompiler(context, compiler)) {
+			context.error("Downloaded compiler is invalid: " + compiler.getAbsolutePath());
+			return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Download compiler while other parameters are checked, eg. while target libraries are downloaded.
+	 * Compiler is awaited on first usage through {@link #getCompiler(Context)}.
+	 */
+	private static void downloadInBackground(final Context context, final File tempPath, final File compiler) {
+		final FutureTask<Boolean> download = new FutureTask<Boolean>(new Callable<Boolean>() {
+			@Override
+			public Boolean call() throws ExitException {
+				context.setPrefix("[dsl-compiler] ");
+				final long start = System.currentTimeMillis();
+				try {
+					final boolean result = downloadCompiler(context, tempPath, compiler);
+					if (result) {
+						context.log("Compiler ready in " + (System.currentTimeMillis() - start) + "ms");
+					}
+					return result;
+				} finally {
+					context.setPrefix(null);
+				}
+			}
+		});
+		context.cache(DOWNLOAD_CACHE_NAME, download);
+		context.show("Downloading compiler in background...");
+		final Thread thread = new Thread(download, "dsl-compiler-download");
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	/**
+	 * Compiler specified by the compiler parameter.
+	 * If compiler is being downloaded, waits until download is finished.
+	 */
+	public static File getCompiler(final Context context) throws ExitException {
+		final FutureTask<Boolean> download = context.load(DOWNLOAD_CACHE_NAME);
+		if (download != null) {
+			try {
+				if (!download.isDone()) {
+					context.show("Waiting for compiler download to finish...");
+				}
+				if (!download.get()) {
+					throw new ExitException();
+				}
+			} catch (InterruptedException ex) {
+				context.error(ex);
+				throw new ExitException();
+			} catch (ExecutionException ex) {
+				if (!(ex.getCause() instanceof ExitException)) {
+					context.error("Unexpected error during compiler download.");
+					context.error(ex.getCause() instanceof Exception ? (Exception) ex.getCause() : ex);
+				}
+				throw new ExitException();
+			}
+		}
+		return new File(context.get(INSTANCE));
+	}
+
 	private static boolean testCompiler(final Context context, final File path) throws ExitException {
 		if (Utils.isWindows()) {
 			return Utils.testCommand(context, path.getAbsolutePath(), "DSL Platform");
@@ -2,14 +2,16 @@ package com.dslplatform.compiler.client.parameters;
 
 import com.dslplatform.compiler.client.*;
 
-import java.io.DataInputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
-import java.util.Arrays;
-import java.util.LinkedHashMap;
-import java.util.List;
-import java.util.Map;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+import java.util.*;
+import java.util.concurrent.*;
 
 public enum DslPath implements CompileParameter {
 	INSTANCE;
@@ -21,6 +23,7 @@ public enum DslPath implements CompileParameter {
 
 	private static final String CACHE_MAP_NAME = "current_dsl_map_cache";
 	private static final String CACHE_FILE_NAME = "current_dsl_file_cache";
+	private static final String CACHE_STAMP_NAME = "current_dsl_stamp_cache";
 
 	public static Map<String, String> getCurrentDsl(final Context context) throws ExitException {
 		final Map<String, String> cache = context.load(CACHE_MAP_NAME);
@@ -40,7 +43,129 @@ public enum DslPath implements CompileParameter {
 		return context.load(CACHE_FILE_NAME);
 	}
 
+	private static final int IO_WORKERS = Math.min(8, Runtime.getRuntime().availableProcessors() * 2);
+	private static final long MAP_THRESHOLD = 1024 * 1024;
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	private static final ThreadLocal<CharsetDecoder> decoders = new ThreadLocal<CharsetDecoder>() {
+		@Override
+		protected CharsetDecoder initialValue() {
+			return UTF8.newDecoder()
+					.onMalformedInput(CodingErrorAction.REPLACE)
+					.onUnmappableCharacter(CodingErrorAction.REPLACE);
+		}
+	};
+
+	private static boolean isDsl(final String name) {
+		return name.endsWith(".dsl") || name.endsWith(".ddd");
+	}
+
+	/**
+	 * Find DSL files in the same order as a recursive walk through File.list would.
+	 * Folders are listed level by level in parallel, which helps on network file systems
+	 * where each listing is a round trip.
+	 */
+	private static List<File> walk(final File root, final ExecutorService executor) throws IOException, InterruptedException {
+		final Map<File, File[]> listings = new HashMap<File, File[]>();
+		List<File> level = Collections.singletonList(root);
+		while (!level.isEmpty()) {
+			final List<Future<File[]>> futures = new ArrayList<Future<File[]>>(level.size());
+			for (final File dir : level) {
+				futures.add(executor.submit(new Callable<File[]>() {
+					@Override
+					public File[] call() throws IOException {
+						final File[] files = dir.listFiles();
+						if (files == null) {
+							throw new IOException("Unable to list files in: " + dir.getAbsolutePath());
+						}
+						return files;
+					}
+				}));
+			}
+			final List<File> next = new ArrayList<File>();
+			for (int i = 0; i < level.size(); i++) {
+				final File[] files;
+				try {
+					files = futures.get(i).get();
+				} catch (ExecutionException ex) {
+					throw ex.getCause() instanceof IOException
+							? (IOException) ex.getCause()
+							: new IOException(ex.getCause().getMessage());
+				}
+				listings.put(level.get(i), files);
+				for (final File f : files) {
+					if (f.isDirectory()) {
+						next.add(f);
+					}
+				}
+			}
+			level = next;
+		}
+		final List<File> result = new ArrayList<File>();
+		collect(root, listings, result);
+		return result;
+	}
+
+	private static void collect(final File dir, final Map<File, File[]> listings, final List<File> result) {
+		for (final File f : listings.get(dir)) {
+			if (listings.containsKey(f)) {
+				collect(f, listings, result);
+			} else if (isDsl(f.getName())) {
+				result.add(f);
+			}
+		}
+	}
+
+	/**
+	 * Read DSL file as UTF-8.
+	 * Large files are memory mapped instead of copied into a temporary array.
+	 */
+	static String readDsl(final File file) throws IOException {
+		final FileInputStream fis = new FileInputStream(file);
+		try {
+			final FileChannel channel = fis.getChannel();
+			final long size = channel.size();
+			final ByteBuffer buffer;
+			if (size >= MAP_THRESHOLD) {
+				buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+			} else {
+				buffer = ByteBuffer.allocate((int) size);
+				while (buffer.hasRemaining() && channel.read(buffer) != -1) {
+				}
+				buffer.flip();
+			}
+			final CharsetDecoder decoder = decoders.get();
+			decoder.reset();
+			return decoder.decode(buffer).toString();
+		} finally {
+			fis.close();
+		}
+	}
+
 	private static void findDsls(final Context context) throws ExitException {
+		loadDsls(context, null, null);
+	}
+
+	/**
+	 * Check DSL files for changes since they were last loaded.
+	 * Only new and modified files are read again, while unchanged files keep their previous content.
+	 *
+	 * @return names of added, modified and removed DSL files
+	 */
+	public static Set<String> refresh(final Context context) throws ExitException {
+		final Map<File, String> stamps = context.load(CACHE_STAMP_NAME);
+		final Map<String, String> previous = context.load(CACHE_MAP_NAME);
+		return loadDsls(context, stamps, previous);
+	}
+
+	private static String stamp(final File file) {
+		return file.lastModified() + ":" + file.length();
+	}
+
+	private static Set<String> loadDsls(
+			final Context context,
+			final Map<File, String> previousStamps,
+			final Map<String, String> previousDsl) throws ExitException {
 		String value = context.get(INSTANCE);
 		if (value == null) {
 			if (!(new File("./dsl").exists())) {
@@ -50,29 +175,71 @@ public enum DslPath implements CompileParameter {
 			context.put(INSTANCE, value = "./dsl");
 		}
 		final File dslPath = new File(value).getAbsoluteFile();
-		final List<File> dslFiles = Utils.findFiles(dslPath, Arrays.asList(".dsl", ".ddd"));
-		final Map<String, String> dslMap = new LinkedHashMap<String, String>();
 		final int pathLen = dslPath.getAbsolutePath().length();
-		for (final File file : dslFiles) {
-			if (!file.canRead()) {
-				context.error("Can't read DSL file: " + file.getName());
-				throw new ExitException();
-			}
+		final ExecutorService executor = Executors.newFixedThreadPool(IO_WORKERS);
+		try {
+			final List<File> dslFiles;
 			try {
-				final byte[] bytes = new byte[(int) file.length()];
-				final DataInputStream dis = new DataInputStream(new FileInputStream(file));
-				dis.readFully(bytes);
-				dis.close();
-				final String relativeName = file.getAbsolutePath().substring(pathLen);
-				dslMap.put(relativeName, new String(bytes, "UTF-8"));
+				dslFiles = walk(dslPath, executor);
 			} catch (IOException ex) {
-				context.error("Error reading DSL file: " + file.getName());
+				context.error("Error searching for DSL files in: " + dslPath);
 				context.error(ex);
 				throw new ExitException();
 			}
+			final Map<File, String> stamps = new HashMap<File, String>();
+			final Set<String> changes = new LinkedHashSet<String>();
+			final List<Future<String>> contents = new ArrayList<Future<String>>(dslFiles.size());
+			for (final File file : dslFiles) {
+				final String relativeName = file.getAbsolutePath().substring(pathLen);
+				final String stamp = stamp(file);
+				stamps.put(file, stamp);
+				if (previousStamps != null && previousDsl != null
+						&& stamp.equals(previousStamps.get(file)) && previousDsl.containsKey(relativeName)) {
+					contents.add(null);
+					continue;
+				}
+				changes.add(relativeName);
+				contents.add(executor.submit(new Callable<String>() {
+					@Override
+					public String call() throws IOException {
+						return readDsl(file);
+					}
+				}));
+			}
+			final Map<String, String> dslMap = new LinkedHashMap<String, String>();
+			for (int i = 0; i < dslFiles.size(); i++) {
+				final File file = dslFiles.get(i);
+				try {
+					final String relativeName = file.getAbsolutePath().substring(pathLen);
+					final Future<String> content = contents.get(i);
+					dslMap.put(relativeName, content != null ? content.get() : previousDsl.get(relativeName));
+				} catch (ExecutionException ex) {
+					if (!file.canRead()) {
+						context.error("Can't read DSL file: " + file.getName());
+					} else {
+						context.error("Error reading DSL file: " + file.getName());
+						context.error(ex.getCause() instanceof Exception ? (Exception) ex.getCause() : ex);
+					}
+					throw new ExitException();
+				}
+			}
+			if (previousDsl != null) {
+				for (final String name : previousDsl.keySet()) {
+					if (!dslMap.containsKey(name)) {
+						changes.add(name);
+					}
+				}
+			}
+			context.cache(CACHE_MAP_NAME, dslMap);
+			context.cache(CACHE_FILE_NAME, dslFiles);
+			context.cache(CACHE_STAMP_NAME, stamps);
+			return changes;
+		} catch (InterruptedException ex) {
+			context.error(ex);
+			throw new ExitException();
+		} finally {
+			executor.shutdownNow();
 		}
-		context.cache(CACHE_MAP_NAME, dslMap);
-		context.cache(CACHE_FILE_NAME, dslFiles);
 	}
 
 	@Override
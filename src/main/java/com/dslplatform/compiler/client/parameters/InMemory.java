@@ -0,0 +1,34 @@
+package com.dslplatform.compiler.client.parameters;
+
+import com.dslplatform.compiler.client.CompileParameter;
+import com.dslplatform.compiler.client.Context;
+
+public enum InMemory implements CompileParameter {
+	INSTANCE;
+
+	@Override
+	public String getAlias() { return "in-memory"; }
+	@Override
+	public String getUsage() { return null; }
+
+	@Override
+	public boolean check(final Context context) {
+		return true;
+	}
+
+	@Override
+	public void run(final Context context) {
+	}
+
+	@Override
+	public String getShortDescription() {
+		return "Build Java targets without writing generated sources to disk";
+	}
+
+	@Override
+	public String getDetailedDescription() {
+		return "Generated Java sources are kept in memory, compiled in process and classes are written directly into the jar.\n" +
+				"Temporary folder is not used for such targets, which helps when it's on a slow or network drive.\n" +
+				"Requires running on a JDK without custom java path. Otherwise sources are saved to temporary folder as usual.";
+	}
+}
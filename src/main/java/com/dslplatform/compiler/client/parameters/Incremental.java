@@ -0,0 +1,41 @@
+package com.dslplatform.compiler.client.parameters;
+
+import com.dslplatform.compiler.client.CompileParameter;
+import com.dslplatform.compiler.client.Context;
+
+import java.io.File;
+
+public enum Incremental implements CompileParameter {
+	INSTANCE;
+
+	@Override
+	public String getAlias() { return "incremental"; }
+	@Override
+	public String getUsage() { return null; }
+
+	public static File getWorkspaceRoot() {
+		return new File(new File(System.getProperty("user.home"), ".dsl-platform"), "workspace");
+	}
+
+	@Override
+	public boolean check(final Context context) {
+		return true;
+	}
+
+	@Override
+	public void run(final Context context) {
+	}
+
+	@Override
+	public String getShortDescription() {
+		return "Recompile only changed Java sources and their dependents";
+	}
+
+	@Override
+	public String getDetailedDescription() {
+		return "Compiled classes, hashes of generated sources and dependencies between classes are kept in ~/.dsl-platform/workspace for each Java library.\n" +
+				"On the next build only changed sources, their subclasses and sources which reference those classes are compiled again.\n" +
+				"Full compilation is done when dependencies change or incremental compilation fails.\n" +
+				"Requires running on a JDK without custom java path.";
+	}
+}
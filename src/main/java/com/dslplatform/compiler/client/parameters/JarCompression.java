@@ -0,0 +1,58 @@
+package com.dslplatform.compiler.client.parameters;
+
+import com.dslplatform.compiler.client.CompileParameter;
+import com.dslplatform.compiler.client.Context;
+
+import java.util.zip.Deflater;
+
+public enum JarCompression implements CompileParameter {
+	INSTANCE;
+
+	@Override
+	public String getAlias() { return "jar-compression"; }
+	@Override
+	public String getUsage() { return "level"; }
+
+	public static int getLevel(final Context context) {
+		final String value = context.get(INSTANCE);
+		if (value == null || value.length() == 0) {
+			return Deflater.DEFAULT_COMPRESSION;
+		}
+		return Integer.parseInt(value);
+	}
+
+	@Override
+	public boolean check(final Context context) {
+		if (context.contains(INSTANCE)) {
+			final String value = context.get(INSTANCE);
+			try {
+				final int level = Integer.parseInt(value);
+				if (level >= 0 && level <= 9) {
+					return true;
+				}
+			} catch (NumberFormatException ignore) {
+			}
+			context.error("Invalid jar compression level: " + value + ". Expecting number from 0 to 9.");
+			return false;
+		}
+		return true;
+	}
+
+	@Override
+	public void run(final Context context) {
+	}
+
+	@Override
+	public String getShortDescription() {
+		return "Compression level used for Java and Scala jars";
+	}
+
+	@Override
+	public String getDetailedDescription() {
+		return "Compiled classes and sources are packaged into jars with the specified compression level.\n" +
+				"0 disables compression, which makes the build faster at the cost of larger jars, while 9 makes the smallest jars.\n" +
+				"\n" +
+				"Example:\n" +
+				"	-jar-compression=1";
+	}
+}
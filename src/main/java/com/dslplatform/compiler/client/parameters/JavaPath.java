@@ -4,9 +4,10 @@ import com.dslplatform.compiler.client.*;
 
 import java.io.File;
 import java.io.IOException;
-import java.util.ArrayList;
-import java.util.Arrays;
-import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
 
 public enum JavaPath implements CompileParameter {
 	INSTANCE;
@@ -34,128 +35,108 @@ public enum JavaPath implements CompileParameter {
 		}
 	}
 
-	public static Either<Utils.CommandResult> makeArchive(
+	/**
+	 * Package compiled classes into the output jar.
+	 * When sources are included, sources jar is written at the same time on a separate thread.
+	 */
+	public static Either<Boolean> makeArchive(
 			final Context context,
 			final File source,
 			final File classOut,
 			final File output) {
-		final Either<String> tryJar = getJarCommand(context);
-		if (!tryJar.isSuccess())
-			return Either.fail(tryJar.whyNot());
-		final String jar = tryJar.get();
-
-		final List<String> jarArguments = makeJarArguments(classOut, "class", output);
-
-		context.show("Running jar for " + output.getName() + "...");
-		final Either<Utils.CommandResult> execArchive = Utils.runCommand(context, jar, classOut, jarArguments);
-		if (!execArchive.isSuccess()) {
-			return Either.fail(execArchive.whyNot());
+		final int level = JarCompression.getLevel(context);
+		final FutureTask<Either<Boolean>> sources;
+		if (context.contains(IncludeSources.INSTANCE)) {
+			sources = new FutureTask<Either<Boolean>>(new Callable<Either<Boolean>>() {
+				@Override
+				public Either<Boolean> call() {
+					return makeSourcesArchive(context, level, source, getSourcesArchive(output));
+				}
+			});
+			final Thread thread = new Thread(sources, "sources-" + output.getName());
+			thread.setDaemon(true);
+			thread.start();
+		} else {
+			sources = null;
 		}
-		final Utils.CommandResult archiving = execArchive.get();
-		if (archiving.error.length() > 0) {
-			return Either.fail(archiving.error);
+		context.show("Creating " + output.getName() + "...");
+		try {
+			final int count = JarArchiver.archive(classOut, ".class", output, level);
+			context.log("Archived " + count + " classes into " + output.getAbsolutePath());
+		} catch (IOException ex) {
+			discardSources(sources, output);
+			return Either.fail("Unable to create " + output.getAbsolutePath(), ex);
 		}
+		if (sources != null) {
+			try {
+				final Either<Boolean> result = sources.get();
+				if (!result.isSuccess()) {
+					return result;
+				}
+			} catch (InterruptedException ex) {
+				return Either.fail(ex);
+			} catch (ExecutionException ex) {
+				return Either.fail(ex.getCause() instanceof Exception ? (Exception) ex.getCause() : ex);
+			}
+		}
+		return Either.success(true);
+	}
 
-		if (context.contains(IncludeSources.INSTANCE)) {
-			final String outputSourcePath = output.getAbsolutePath();
-			final int outputSourceNameLen = output.getAbsolutePath().lastIndexOf(".");
-			final File outputSourcesJar = new File(outputSourcePath.substring(0, outputSourceNameLen) + "-sources.jar");
-			makeSourcesArchive(context, jar, source, outputSourcesJar);
+	/**
+	 * Wait for the sources jar which is being written concurrently and remove it,
+	 * so a failed build doesn't leave sources jar without the library.
+	 */
+	public static void discardSources(final Future<?> sources, final File output) {
+		if (sources == null) {
+			return;
 		}
+		try {
+			sources.get();
+		} catch (InterruptedException ignore) {
+		} catch (ExecutionException ignore) {
+		}
+		final File archive = getSourcesArchive(output);
+		if (archive.exists() && !archive.delete()) {
+			archive.deleteOnExit();
+		}
+	}
 
-		return Either.success(execArchive.get());
+	public static File getSourcesArchive(final File output) {
+		final String outputSourcePath = output.getAbsolutePath();
+		final int outputSourceNameLen = outputSourcePath.lastIndexOf(".");
+		return new File(outputSourcePath.substring(0, outputSourceNameLen) + "-sources.jar");
 	}
 
-	public static Either<Utils.CommandResult> makeSourcesArchive(
+	public static Either<Boolean> makeSourcesArchive(
 			final Context context,
 			final File source,
 			final File output) {
-		final Either<String> tryJar = getJarCommand(context);
-		if (!tryJar.isSuccess())
-			return Either.fail(tryJar.whyNot());
-		final String jar = tryJar.get();
-		return makeSourcesArchive(context, jar, source, output);
+		return makeSourcesArchive(context, JarCompression.getLevel(context), source, output);
 	}
 
-	private static Either<Utils.CommandResult> makeSourcesArchive(
+	private static Either<Boolean> makeSourcesArchive(
 			final Context context,
-			final String jar,
+			final int level,
 			final File source,
 			final File output) {
-		final List<String> jarSourceArguments = makeJarArguments(source, "java", output);
-		context.show("Running jar for sources " + output.getName() + "...");
-		final Either<Utils.CommandResult> execSourceArchive = Utils.runCommand(context, jar, source, jarSourceArguments);
-		if (!execSourceArchive.isSuccess()) {
-			return Either.fail(execSourceArchive.whyNot());
-		}
-		final Utils.CommandResult archivingSource = execSourceArchive.get();
-		if (archivingSource.error.length() > 0) {
-			return Either.fail(archivingSource.error);
-		}
-		return Either.success(execSourceArchive.get());
-	}
-
-	public static Either<Utils.CommandResult> makeEmptyArchive(Context context, final File classOut, File output) {
-		final Either<String> tryJar = getJarCommand(context);
-		if (!tryJar.isSuccess())
-			return Either.fail(tryJar.whyNot());
-		final String jar = tryJar.get();
-
-		final String manifestName = "MANIFEST.MF";
+		context.show("Creating sources " + output.getName() + "...");
 		try {
-			final File mockManifest = new File(classOut, manifestName);
-			Utils.saveFile(mockManifest, "Manifest-Version: 1.0");
-		} catch (IOException e) {
-			context.error("Can't create mock MANIFEST.MF.");
-			return Either.fail(e);
+			final int count = JarArchiver.archive(source, ".java", output, level);
+			context.log("Archived " + count + " sources into " + output.getAbsolutePath());
+			return Either.success(true);
+		} catch (IOException ex) {
+			return Either.fail("Unable to create " + output.getAbsolutePath(), ex);
 		}
-
-		final List<String> jarArguments = new ArrayList<String>();
-		jarArguments.add("cfm");
-		jarArguments.add(output.getAbsolutePath());
-		jarArguments.add(manifestName);
-		return Utils.runCommand(context, jar, classOut, jarArguments);
 	}
 
-	private static Either<String> getJarCommand(final Context context) {
-		if (context.contains(INSTANCE)) {
-			final File jarFile = new File(context.get(INSTANCE), "jar");
-			return Either.success(jarFile.getAbsolutePath());
-		} else {
-			final String envJH = System.getenv("JAVA_HOME");
-			final String envJDH = System.getenv("JDK_HOME");
-			if (Utils.testCommand(context, "jar", "Usage: jar")) {
-				return Either.success("jar");
-			} else if (envJH != null && Utils.testCommand(context, envJH + "/bin/jar", "Usage: jar")) {
-				return  Either.success(envJH + "/bin/jar");
-			} else if (envJDH != null && Utils.testCommand(context, envJDH + "/bin/jar", "Usage: jar")) {
-				return Either.success(envJDH + "/bin/jar");
-			} else {
-				return Either.fail("Unable to find Java archive tool. Add it to path or specify java compile option.");
-			}
-		}
-	}
-	private static List<String> makeJarArguments(
-			final File source,
-			final String type,
-			final File output) {
-		final List<String> jarArguments = new ArrayList<String>();
-		jarArguments.add("cf");
-		jarArguments.add(output.getAbsolutePath());
-
-		final int len = source.getAbsolutePath().length() + 1;
-		if (Utils.isWindows()) {
-			final List<File> classDirs = Utils.findNonEmptyDirs(source, "." + type);
-			for (final File f : classDirs) {
-				jarArguments.add(f.getAbsolutePath().substring(len) + File.separator + "*." + type);
-			}
-		} else {
-			final List<File> classFiles = Utils.findFiles(source, Arrays.asList("." + type));
-			for (final File f : classFiles) {
-				jarArguments.add(f.getAbsolutePath().substring(len));
-			}
+	public static Either<Boolean> makeEmptyArchive(final Context context, final File output) {
+		try {
+			JarArchiver.archiveEmpty(output);
+			return Either.success(true);
+		} catch (IOException ex) {
+			context.error("Can't create empty jar.");
+			return Either.fail(ex);
 		}
-		return jarArguments;
 	}
 
 	@Override
@@ -168,12 +149,6 @@ public enum JavaPath implements CompileParameter {
 				context.error("Trying to use: " + javac.getAbsolutePath());
 				return false;
 			}
-			final File jar = new File(path, "jar");
-			if (!Utils.testCommand(context, jar.getAbsolutePath(), "Usage: jar")) {
-				context.error("java parameter is set, but Java archive tool not found/doesn't work. Please check specified java parameter.");
-				context.error("Trying to use: " + jar.getAbsolutePath());
-				return false;
-			}
 		}
 		return true;
 	}
@@ -184,19 +159,19 @@ public enum JavaPath implements CompileParameter {
 
 	@Override
 	public String getShortDescription() {
-		return "specify custom path to Java compiler (javac) and Java archive tool (jar)";
+		return "specify custom path to Java compiler (javac)";
 	}
 
 	@Override
 	public String getDetailedDescription() {
 		return "To compile Java libraries Java compiler is required.\n" +
 				"If javac is not available in path, custom path can be used to specify it.\n" +
-				"jar is required to package compiled .class files into .jar\n" +
+				"When running on a JDK without this parameter, Java libraries are compiled within the same process instead.\n" +
 				"\n" +
 				"JDK_HOME and JAVA_HOME environment variables will be checked for Java tools.\n" +
 				"\n" +
 				"Example:\n" +
 				"	/var/user/java-8\n" +
-				"where /var/user/java-8/javac and /var/user/java-8/jar exists";
+				"where /var/user/java-8/javac exists";
 	}
 }
@@ -0,0 +1,47 @@
+package com.dslplatform.compiler.client.parameters;
+
+import com.dslplatform.compiler.client.CompileParameter;
+import com.dslplatform.compiler.client.Context;
+
+import java.io.File;
+
+public enum MetricsOutput implements CompileParameter {
+	INSTANCE;
+
+	@Override
+	public String getAlias() { return "metrics"; }
+	@Override
+	public String getUsage() { return "file"; }
+
+	@Override
+	public boolean check(final Context context) {
+		if (context.contains(INSTANCE)) {
+			final String value = context.get(INSTANCE);
+			final File parent = value == null ? null : new File(value).getAbsoluteFile().getParentFile();
+			if (parent == null || !parent.isDirectory()) {
+				context.error("Invalid metrics file: " + value + ". Expecting a file in an existing folder.");
+				return false;
+			}
+		}
+		return true;
+	}
+
+	@Override
+	public void run(final Context context) {
+	}
+
+	@Override
+	public String getShortDescription() {
+		return "Save time and resources used by each step as JSON";
+	}
+
+	@Override
+	public String getDetailedDescription() {
+		return "Same measurements as shown with timings, saved into the specified file for further processing.\n" +
+				"Each step is saved as an object with phase, wallMs, cpuMs, childProcessMs, bytesSent, bytesReceived and peakHeapBytes.\n" +
+				"cpuMs is null when JVM doesn't report process CPU time. peakHeapBytes is an upper bound (sum of heap pool peaks).\n" +
+				"\n" +
+				"Example:\n" +
+				"	-metrics=build-metrics.json";
+	}
+}
@@ -2,10 +2,11 @@ package com.dslplatform.compiler.client.parameters;
 
 import com.dslplatform.compiler.client.*;
 import com.dslplatform.compiler.client.json.JsonObject;
-import com.dslplatform.compiler.client.json.JsonValue;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.StringWriter;
 import java.util.*;
 
 public enum Migration implements CompileParameter {
@@ -103,20 +104,36 @@ public enum Migration implements CompileParameter {
 		final String url =
 				"Platform.svc/unmanaged/postgres-migration?version=" + dbInfo.compilerVersion
 						+ "&postgres=" + dbInfo.postgresVersion;
+		final List<Map<String, String>> dsls = new ArrayList<Map<String, String>>(2);
+		dsls.add(dbInfo.dsl);
+		dsls.add(currentDsl);
+		final List<JsonObject> uploads = DslServer.toJson(context, dsls);
 		final JsonObject arg =
 				new JsonObject()
-						.add("Old", Utils.toJson(dbInfo.dsl))
-						.add("New", Utils.toJson(currentDsl));
+						.add("Old", uploads.get(0))
+						.add("New", uploads.get(1));
 		context.show("Downloading SQL migration...");
-		final Either<String> response = DslServer.put(url, context, arg);
+		final StringWriter migration = new StringWriter();
+		final Utils.StreamProcessor processor = new Utils.StreamProcessor() {
+			@Override
+			public void process(final InputStream stream) throws IOException {
+				DslServer.readString(stream, migration);
+			}
+		};
+		Either<Boolean> response = DslServer.put(url, context, arg, processor);
+		if (DslServer.isMissingCachedDsl(context, response)) {
+			final JsonObject fullArg =
+					new JsonObject()
+							.add("Old", Utils.toJson(dbInfo.dsl))
+							.add("New", Utils.toJson(currentDsl));
+			response = DslServer.put(url, context, fullArg, processor);
+		}
 		if (!response.isSuccess()) {
 			context.error("Error creating online SQL migration:");
 			context.error(response.whyNot());
 			throw new ExitException();
 		}
-		return response.get().startsWith("\"") && response.get().endsWith("\"")
-				? JsonValue.readFrom(response.get()).asString()
-				: response.get();
+		return migration.toString();
 	}
 
 	private String offlineMigration(final Context context, final DbConnection.DatabaseInfo dbInfo) throws ExitException {
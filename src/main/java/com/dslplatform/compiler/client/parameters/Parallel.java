@@ -0,0 +1,73 @@
+package com.dslplatform.compiler.client.parameters;
+
+import com.dslplatform.compiler.client.*;
+
+public enum Parallel implements CompileParameter, ParameterParser {
+	INSTANCE;
+
+	@Override
+	public String getAlias() { return "parallel"; }
+	@Override
+	public String getUsage() { return "count"; }
+
+	public static int getWorkers(final Context context) {
+		if (!context.contains(INSTANCE)) {
+			return 1;
+		}
+		final String value = context.get(INSTANCE);
+		if (value == null || value.length() == 0) {
+			return Runtime.getRuntime().availableProcessors();
+		}
+		return Integer.parseInt(value);
+	}
+
+	@Override
+	public Either<Boolean> tryParse(final String name, final String value, final Context context) {
+		if ("parallel".equalsIgnoreCase(name)) {
+			context.put(INSTANCE, value);
+			return Either.success(true);
+		}
+		return Either.success(false);
+	}
+
+	@Override
+	public boolean check(final Context context) {
+		if (context.contains(INSTANCE)) {
+			final String value = context.get(INSTANCE);
+			if (value == null || value.length() == 0) {
+				return true;
+			}
+			try {
+				if (Integer.parseInt(value) > 0) {
+					return true;
+				}
+			} catch (NumberFormatException ignore) {
+			}
+			context.error("Invalid number of parallel builds: " + value + ". Expecting positive number.");
+			return false;
+		}
+		return true;
+	}
+
+	@Override
+	public void run(final Context context) {
+	}
+
+	@Override
+	public String getShortDescription() {
+		return "Build targets in parallel using specified number of workers";
+	}
+
+	@Override
+	public String getDetailedDescription() {
+		return "After sources are generated, each target is compiled with an external tool (javac, csc, scalac, ...).\n" +
+				"Since target builds are independent, they can be run in parallel.\n" +
+				"Output of each build will be prefixed with the target name.\n" +
+				"Build will stop on the first failed target.\n" +
+				"When count is not specified, number of available processors will be used.\n" +
+				"\n" +
+				"Example:\n" +
+				"	-parallel\n" +
+				"	-parallel=4 -target=java_client,revenj,scala_client";
+	}
+}
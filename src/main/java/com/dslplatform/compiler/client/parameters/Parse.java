@@ -38,9 +38,13 @@ public enum Parse implements CompileParameter {
 					throw new ExitException();
 				}
 			} else {
-				final JsonValue json = Utils.toJson(DslPath.getCurrentDsl(context));
+				final Map<String, String> dsl = DslPath.getCurrentDsl(context);
+				final JsonValue json = DslServer.toJson(context, dsl);
 				context.show("Validating DSL online...");
-				final Either<String> result = DslServer.put("Platform.svc/parse", context, json);
+				Either<String> result = DslServer.put("Platform.svc/parse", context, json);
+				if (DslServer.isMissingCachedDsl(context, result)) {
+					result = DslServer.put("Platform.svc/parse", context, Utils.toJson(dsl));
+				}
 				if (result.isSuccess()) {
 					context.show("Parse successful.");
 				} else {
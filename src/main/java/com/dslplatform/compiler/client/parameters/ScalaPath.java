@@ -61,7 +61,6 @@ public enum ScalaPath implements CompileParameter {
 	public String getDetailedDescription() {
 		return "To compile Scala libraries Scala compiler is required.\n" +
 				"If scalac is not available in path, custom path can be used to specify it.\n" +
-				"jar from Java compiler is required to package compiled .class files into .jar" +
 				"\n" +
 				"SCALA_HOME environment variables will be checked for Scala tools.\n" +
 				"\n" +
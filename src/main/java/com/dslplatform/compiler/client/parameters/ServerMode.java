@@ -0,0 +1,278 @@
+package com.dslplatform.compiler.client.parameters;
+
+import com.dslplatform.compiler.client.*;
+
+import java.io.*;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+
+public enum ServerMode implements CompileParameter {
+	INSTANCE;
+
+	@Override
+	public String getAlias() { return "server-mode"; }
+	@Override
+	public String getUsage() { return null; }
+
+	private static final String CACHE_NAME = "compiler_server_cache";
+	private static final Charset utf8 = Charset.forName("UTF-8");
+	private static final int STARTUP_TIMEOUT = 60000;
+
+	private static class CompilerServer {
+		private final File compiler;
+		private final Process process;
+		private final int port;
+
+		private CompilerServer(final File compiler, final Process process, final int port) {
+			this.compiler = compiler;
+			this.process = process;
+			this.port = port;
+		}
+
+		private boolean isAlive() {
+			try {
+				process.exitValue();
+				return false;
+			} catch (IllegalThreadStateException ignore) {
+				return true;
+			}
+		}
+	}
+
+	private static int findFreePort() throws IOException {
+		final ServerSocket socket = new ServerSocket(0);
+		try {
+			return socket.getLocalPort();
+		} finally {
+			socket.close();
+		}
+	}
+
+	private static Either<CompilerServer> startServer(final Context context, final File compiler) throws ExitException {
+		final int port;
+		try {
+			port = findFreePort();
+		} catch (IOException ex) {
+			return Either.fail("Unable to find free port for DSL compiler server", ex);
+		}
+		final List<String> arguments = new ArrayList<String>();
+		arguments.add("server-mode");
+		arguments.add("port=" + port);
+		context.log("Starting DSL compiler in server mode on port " + port + "...");
+		final Either<Process> process;
+		if (Utils.isWindows()) {
+			process = Utils.startProcess(context, compiler.getAbsolutePath(), compiler.getParentFile(), arguments);
+		} else {
+			final Either<String> mono = Mono.findMono(context);
+			if (!mono.isSuccess()) {
+				context.error("Mono is required to run DSL compiler. Mono not detected or specified.");
+				throw new ExitException();
+			}
+			arguments.add(0, compiler.getAbsolutePath());
+			process = Utils.startProcess(context, mono.get(), compiler.getParentFile(), arguments);
+		}
+		if (!process.isSuccess()) {
+			return Either.fail(process.whyNot());
+		}
+		final CompilerServer server = new CompilerServer(compiler, process.get(), port);
+		final long start = System.currentTimeMillis();
+		while (System.currentTimeMillis() - start < STARTUP_TIMEOUT) {
+			if (!server.isAlive()) {
+				return Either.fail("DSL compiler server exited with code " + server.process.exitValue());
+			}
+			try {
+				final Socket socket = new Socket();
+				socket.connect(new InetSocketAddress("127.0.0.1", port), 1000);
+				socket.close();
+				Runtime.getRuntime().addShutdownHook(new Thread() {
+					@Override
+					public void run() {
+						server.process.destroy();
+					}
+				});
+				context.log("DSL compiler server started in " + (System.currentTimeMillis() - start) + "ms");
+				return Either.success(server);
+			} catch (IOException ignore) {
+				try {
+					Thread.sleep(100);
+				} catch (InterruptedException ex) {
+					server.process.destroy();
+					return Either.fail(ex);
+				}
+			}
+		}
+		server.process.destroy();
+		return Either.fail("Timeout waiting for DSL compiler server to start on port " + port);
+	}
+
+	private static Either<CompilerServer> getOrStart(final Context context, final File compiler) throws ExitException {
+		final CompilerServer cached = context.load(CACHE_NAME);
+		if (cached != null && cached.isAlive() && cached.compiler.equals(compiler)) {
+			return Either.success(cached);
+		}
+		if (cached != null) {
+			cached.process.destroy();
+		}
+		final Either<CompilerServer> server = startServer(context, compiler);
+		if (server.isSuccess()) {
+			context.cache(CACHE_NAME, server.get());
+		}
+		return server;
+	}
+
+	private static String escape(final String argument) {
+		return "\"" + argument.replace("\\", "\\\\").replace("\"", "\\\"") + "\"";
+	}
+
+	private static void readFully(final InputStream is, final byte[] buffer) throws IOException {
+		int offset = 0;
+		while (offset < buffer.length) {
+			final int len = is.read(buffer, offset, buffer.length - offset);
+			if (len == -1) {
+				throw new EOFException("Unexpected end of DSL compiler server response");
+			}
+			offset += len;
+		}
+	}
+
+	private static class BoundedInputStream extends FilterInputStream {
+		private int remaining;
+
+		private BoundedInputStream(final InputStream stream, final int length) {
+			super(stream);
+			this.remaining = length;
+		}
+
+		@Override
+		public int read() throws IOException {
+			if (remaining <= 0) {
+				return -1;
+			}
+			final int result = super.read();
+			if (result != -1) {
+				remaining--;
+			}
+			return result;
+		}
+
+		@Override
+		public int read(final byte[] buffer, final int offset, final int length) throws IOException {
+			if (remaining <= 0) {
+				return -1;
+			}
+			final int result = super.read(buffer, offset, Math.min(length, remaining));
+			if (result > 0) {
+				remaining -= result;
+			}
+			return result;
+		}
+
+		@Override
+		public int available() throws IOException {
+			return Math.min(super.available(), remaining);
+		}
+
+		@Override
+		public void close() {
+		}
+
+		@Override
+		public boolean markSupported() {
+			return false;
+		}
+	}
+
+	private static Either<Utils.CommandResult> send(
+			final CompilerServer server,
+			final List<String> arguments,
+			final Utils.StreamProcessor processor) {
+		final StringBuilder command = new StringBuilder();
+		for (final String a : arguments) {
+			command.append(escape(a)).append(' ');
+		}
+		command.append('\n');
+		try {
+			final Socket socket = new Socket("127.0.0.1", server.port);
+			try {
+				socket.setTcpNoDelay(true);
+				final OutputStream os = socket.getOutputStream();
+				os.write(command.toString().getBytes(utf8));
+				os.flush();
+				final DataInputStream is = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+				final int status = is.read();
+				if (status != 'O' && status != 'E') {
+					return Either.fail("Invalid response from DSL compiler server. Unknown status: " + status);
+				}
+				final int length = is.readInt();
+				if (status == 'O' && processor != null) {
+					processor.process(new BoundedInputStream(is, length));
+					return Either.success(new Utils.CommandResult("", "", 0));
+				}
+				final byte[] content = new byte[length];
+				readFully(is, content);
+				return Either.success(new Utils.CommandResult(new String(content, utf8), "", status == 'O' ? 0 : 1));
+			} finally {
+				socket.close();
+			}
+		} catch (IOException ex) {
+			return Either.fail(ex);
+		}
+	}
+
+	/**
+	 * Run compiler command on a warm compiler process.
+	 * Process is started on first usage and kept alive until the client exits.
+	 * When processor is specified, successful response will be passed to it instead of returned as output.
+	 *
+	 * @return compiler response or error if server could not be used
+	 */
+	static Either<Utils.CommandResult> runCommand(
+			final Context context,
+			final File compiler,
+			final List<String> arguments,
+			final Utils.StreamProcessor processor) throws ExitException {
+		final Either<CompilerServer> server = getOrStart(context, compiler);
+		if (!server.isSuccess()) {
+			return Either.fail(server.whyNot());
+		}
+		final long start = System.currentTimeMillis();
+		final Either<Utils.CommandResult> result = send(server.get(), arguments, processor);
+		if (result.isSuccess()) {
+			context.log("DSL compiler server responded in " + (System.currentTimeMillis() - start) + "ms");
+		}
+		return result;
+	}
+
+	@Override
+	public boolean check(final Context context) {
+		if (context.contains(INSTANCE) && !context.contains(DslCompiler.INSTANCE)) {
+			context.error("Server mode can only be used with offline compiler. Specify compiler parameter.");
+			return false;
+		}
+		return true;
+	}
+
+	@Override
+	public void run(final Context context) {
+	}
+
+	@Override
+	public String getShortDescription() {
+		return "Keep offline DSL compiler running and reuse it for all compiler calls";
+	}
+
+	@Override
+	public String getDetailedDescription() {
+		return "Offline compiler is started as a separate .NET/Mono process on every compilation, parse or migration.\n" +
+				"Process startup can take several seconds, which adds up when multiple targets are compiled.\n" +
+				"In server mode compiler is started only once and requests are sent to it over a local socket.\n" +
+				"If server can't be started, compiler will be invoked as a regular process.\n" +
+				"\n" +
+				"Example:\n" +
+				"	-compiler -server-mode -target=java_client,revenj";
+	}
+}
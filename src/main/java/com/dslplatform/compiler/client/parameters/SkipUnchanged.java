@@ -0,0 +1,185 @@
+package com.dslplatform.compiler.client.parameters;
+
+import com.dslplatform.compiler.client.*;
+import com.dslplatform.compiler.client.parameters.build.BuildDependencies;
+import com.dslplatform.compiler.client.parameters.build.BuildOutput;
+
+import javax.xml.bind.DatatypeConverter;
+import java.io.*;
+import java.security.MessageDigest;
+import java.util.*;
+
+public enum SkipUnchanged implements CompileParameter {
+	INSTANCE;
+
+	@Override
+	public String getAlias() { return "skip-unchanged"; }
+	@Override
+	public String getUsage() { return null; }
+
+	private static File getFingerprintPath() {
+		return new File(new File(System.getProperty("user.home"), ".dsl-platform"), "fingerprints");
+	}
+
+	private static void collectFiles(final File folder, final String prefix, final Map<String, File> files) throws IOException {
+		final File[] found = folder.listFiles();
+		if (found == null) {
+			throw new IOException("Unable to read folder: " + folder.getAbsolutePath());
+		}
+		for (final File f : found) {
+			if (f.isDirectory()) {
+				collectFiles(f, prefix + f.getName() + "/", files);
+			} else {
+				files.put(prefix + f.getName(), f);
+			}
+		}
+	}
+
+	/**
+	 * Fingerprint of everything which goes into a target build:
+	 * generated sources (from the temporary folder or memory), dependency folder, settings and JDK.
+	 * Dependencies are compared by size and modification time, since reading all libraries on every build
+	 * would take longer than some of the builds being skipped.
+	 */
+	private static String fingerprint(
+			final Context context,
+			final Targets.Option target,
+			final File sources,
+			final Map<String, String> memory) throws ExitException, IOException {
+		final MessageDigest digest = Utils.sha1Digest();
+		Utils.updateDigest(digest, Main.getVersion());
+		Utils.updateDigest(digest, System.getProperty("java.home"));
+		Utils.updateDigest(digest, System.getProperty("java.version"));
+		Utils.updateDigest(digest, target.value);
+		Utils.updateDigest(digest, context.get(Namespace.INSTANCE));
+		final List<Settings.Option> settings = Settings.get(context);
+		if (settings != null) {
+			for (final Settings.Option o : settings) {
+				Utils.updateDigest(digest, o.toString());
+			}
+		}
+		Utils.updateDigest(digest, context.contains(IncludeSources.INSTANCE) ? "sources" : "");
+		Utils.updateDigest(digest, Integer.toString(JarCompression.getLevel(context)));
+		Utils.updateDigest(digest, context.get(JavaPath.INSTANCE));
+		Utils.updateDigest(digest, context.get(ScalaPath.INSTANCE));
+		Utils.updateDigest(digest, context.get(DotNet.INSTANCE));
+		Utils.updateDigest(digest, context.get(Mono.INSTANCE));
+		for (final File o : ((BuildOutput) target.getAction()).getOutputs(context)) {
+			Utils.updateDigest(digest, o.getAbsolutePath());
+		}
+		if (memory != null) {
+			for (final Map.Entry<String, String> kv : new TreeMap<String, String>(memory).entrySet()) {
+				Utils.updateDigest(digest, kv.getKey());
+				Utils.updateDigest(digest, kv.getValue());
+			}
+		} else {
+			final Map<String, File> files = new TreeMap<String, File>();
+			if (sources.isDirectory()) {
+				collectFiles(sources, "", files);
+			}
+			for (final Map.Entry<String, File> kv : files.entrySet()) {
+				Utils.updateDigest(digest, kv.getKey());
+				Utils.updateDigest(digest, Utils.readBytes(kv.getValue()));
+			}
+		}
+		if (target.getAction() instanceof BuildDependencies) {
+			final File dependencies = ((BuildDependencies) target.getAction()).getDependencies(context);
+			final Map<String, File> files = new TreeMap<String, File>();
+			collectFiles(dependencies, "", files);
+			Utils.updateDigest(digest, dependencies.getAbsolutePath());
+			for (final Map.Entry<String, File> kv : files.entrySet()) {
+				Utils.updateDigest(digest, kv.getKey() + ":" + kv.getValue().length() + ":" + kv.getValue().lastModified());
+			}
+		}
+		return DatatypeConverter.printHexBinary(digest.digest()).toLowerCase();
+	}
+
+	private static File fingerprintFile(final Context context, final Targets.Option target) {
+		final List<File> outputs = ((BuildOutput) target.getAction()).getOutputs(context);
+		return new File(getFingerprintPath(), Utils.sha1(target.value + ":" + outputs.get(0).getAbsolutePath()));
+	}
+
+	/**
+	 * Check if the target was already built from the same sources, dependencies and settings.
+	 * Previous fingerprint is removed when the target needs to be built,
+	 * so a failed build is never considered up to date.
+	 *
+	 * @return fingerprint to be saved with {@link #save(Context, Targets.Option, String)} after a successful build
+	 *         or null when the build can be skipped
+	 */
+	public static String changedFingerprint(
+			final Context context,
+			final Targets.Option target,
+			final File sources,
+			final Map<String, String> memory) throws ExitException {
+		final String fingerprint;
+		try {
+			fingerprint = fingerprint(context, target, sources, memory);
+		} catch (IOException ex) {
+			context.log("Unable to calculate fingerprint for " + target.value + ". " + ex.getMessage());
+			return "";
+		}
+		final File file = fingerprintFile(context, target);
+		if (file.isFile()) {
+			boolean outputsExist = true;
+			for (final File o : ((BuildOutput) target.getAction()).getOutputs(context)) {
+				outputsExist = outputsExist && o.isFile();
+			}
+			final Either<String> previous = Utils.readFile(file);
+			if (outputsExist && previous.isSuccess() && fingerprint.equals(previous.get().trim())) {
+				return null;
+			}
+			if (!file.delete()) {
+				context.log("Unable to remove previous fingerprint: " + file.getAbsolutePath());
+			}
+		}
+		return fingerprint;
+	}
+
+	public static void save(final Context context, final Targets.Option target, final String fingerprint) {
+		if (fingerprint == null || fingerprint.length() == 0) {
+			return;
+		}
+		final File path = getFingerprintPath();
+		if (!path.exists() && !path.mkdirs()) {
+			context.log("Unable to create fingerprint folder: " + path.getAbsolutePath());
+			return;
+		}
+		final File file = fingerprintFile(context, target);
+		try {
+			Utils.saveFile(file, fingerprint);
+		} catch (IOException ex) {
+			context.log("Unable to save fingerprint for " + target.value + ". " + ex.getMessage());
+		}
+	}
+
+	public static boolean isEnabled(final Context context, final Targets.Option target) {
+		return context.contains(INSTANCE) && target.getAction() instanceof BuildOutput;
+	}
+
+	@Override
+	public boolean check(final Context context) {
+		return true;
+	}
+
+	@Override
+	public void run(final Context context) {
+	}
+
+	@Override
+	public String getShortDescription() {
+		return "Don't compile targets when their generated sources didn't change";
+	}
+
+	@Override
+	public String getDetailedDescription() {
+		return "Fingerprint of generated sources, dependency folder and settings is saved in ~/.dsl-platform/fingerprints after each successful target build.\n" +
+				"When the fingerprint matches and compiled library still exists, Java, Scala or C# compiler is not run for that target.\n" +
+				"This helps when DSL change affects only some targets, eg. server only concept doesn't change the Java client.\n" +
+				"Targets which only produce sources (such as PHP) are always prepared.\n" +
+				"\n" +
+				"Example:\n" +
+				"	-target=java_client,revenj -skip-unchanged\n" +
+				"	-watch -target=java_client,revenj -compiler -skip-unchanged";
+	}
+}
@@ -1,11 +1,13 @@
 package com.dslplatform.compiler.client.parameters;
 
 import com.dslplatform.compiler.client.*;
-import com.dslplatform.compiler.client.json.JsonObject;
+import com.dslplatform.compiler.client.json.JsonParser;
+import com.dslplatform.compiler.client.json.ParseException;
 import com.dslplatform.compiler.client.parameters.build.*;
 
 import java.io.*;
 import java.util.*;
+import java.util.concurrent.*;
 
 public enum Targets implements CompileParameter, ParameterParser {
 	INSTANCE;
@@ -180,15 +182,69 @@ public enum Targets implements CompileParameter, ParameterParser {
 			context.error("Please check your DSL folder: " + context.get(DslPath.INSTANCE));
 			return false;
 		}
-		for (final Option o : options) {
-			if (!o.action.check(context)) {
+		if (context.contains(Download.INSTANCE) && options.size() > 1) {
+			if (!checkConcurrently(context, options)) {
 				return false;
 			}
+		} else {
+			for (final Option o : options) {
+				if (!checkTarget(context, o)) {
+					return false;
+				}
+			}
 		}
 		context.cache(CACHE_NAME, options);
 		return true;
 	}
 
+	/**
+	 * Check target dependencies at the same time, so missing libraries are downloaded in parallel.
+	 * Only used when download is enabled, since otherwise checks could prompt for an answer.
+	 */
+	private static boolean checkConcurrently(final Context context, final List<Option> options) throws ExitException {
+		context.show("Checking dependencies of " + options.size() + " targets in parallel...");
+		final ExecutorService executor = Executors.newFixedThreadPool(options.size());
+		final List<Future<Boolean>> checks = new ArrayList<Future<Boolean>>(options.size());
+		try {
+			for (final Option o : options) {
+				checks.add(executor.submit(new Callable<Boolean>() {
+					@Override
+					public Boolean call() throws ExitException {
+						context.setPrefix("[" + o.value + "] ");
+						final long start = System.currentTimeMillis();
+						try {
+							final boolean result = checkTarget(context, o);
+							if (result) {
+								context.log("Dependencies ready in " + (System.currentTimeMillis() - start) + "ms");
+							}
+							return result;
+						} finally {
+							context.setPrefix(null);
+						}
+					}
+				}));
+			}
+			boolean success = true;
+			for (final Future<Boolean> c : checks) {
+				try {
+					success = c.get() && success;
+				} catch (ExecutionException ex) {
+					if (!(ex.getCause() instanceof ExitException)) {
+						context.error("Unexpected error during target check.");
+						context.error(ex.getCause() instanceof Exception ? (Exception) ex.getCause() : ex);
+					}
+					success = false;
+				}
+			}
+			return success;
+		} catch (InterruptedException ex) {
+			context.error(ex);
+			throw new ExitException();
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
 	@Override
 	public void run(final Context context) throws ExitException {
 		final List<Option> targets = context.load(CACHE_NAME);
@@ -199,10 +255,87 @@ public enum Targets implements CompileParameter, ParameterParser {
 	}
 
 	public void compile(Context context, List<Option> targets) throws ExitException {
+		final List<Option> remaining = BuildCache.restore(context, targets);
+		if (remaining.isEmpty()) {
+			return;
+		}
 		if (context.contains(DslCompiler.INSTANCE)) {
-			compileOffline(context, targets);
+			compileOffline(context, remaining);
 		} else {
-			compileOnline(context, targets);
+			compileOnline(context, remaining);
+		}
+		BuildCache.store(context, remaining);
+	}
+
+	/**
+	 * Targets which will be built from sources kept in memory, instead of saving them to temporary folder.
+	 */
+	private static Map<Option, Map<String, String>> inMemoryTargets(final Context context, final List<Option> targets) {
+		final Map<Option, Map<String, String>> memory = new HashMap<Option, Map<String, String>>();
+		if (!context.contains(InMemory.INSTANCE)) {
+			return memory;
+		}
+		for (final Option t : targets) {
+			if (t.action instanceof InMemoryBuild && ((InMemoryBuild) t.action).supportsInMemory(context)) {
+				memory.put(t, new HashMap<String, String>());
+			} else {
+				context.log("Sources for " + t.value + " will be saved to temporary folder since target can't be built in memory.");
+			}
+		}
+		return memory;
+	}
+
+	private static class TargetFiles implements DslCompiler.FileHandler {
+		private final String temp;
+		private final List<Option> targets;
+		private final Map<Option, Map<String, String>> memory;
+		private String unassigned;
+
+		private TargetFiles(final String temp, final List<Option> targets, final Map<Option, Map<String, String>> memory) {
+			this.temp = temp;
+			this.targets = targets;
+			this.memory = memory;
+		}
+
+		private Option findTarget(final String prefix) {
+			for (final Option t : targets) {
+				if (t.value.equalsIgnoreCase(prefix) || t.platformName.equalsIgnoreCase(prefix)) {
+					return t;
+				}
+			}
+			return null;
+		}
+
+		@Override
+		public void handle(final String name, final String content) throws IOException {
+			if (unassigned != null) {
+				return;
+			}
+			final Option target;
+			final String file;
+			if (targets.size() == 1) {
+				target = targets.get(0);
+				file = name;
+			} else {
+				final int slash = name.indexOf('/');
+				target = slash == -1 ? null : findTarget(name.substring(0, slash));
+				if (target == null) {
+					unassigned = name;
+					return;
+				}
+				file = name.substring(slash + 1);
+			}
+			final Map<String, String> sources = memory.get(target);
+			if (sources != null) {
+				sources.put(relativePath(target.convertToPath, file + target.extension), content);
+				return;
+			}
+			final String fullName = target.value + "/" + file + target.extension;
+			try {
+				saveFile(temp, target.convertToPath, fullName, content);
+			} catch (IOException ex) {
+				throw new IOException("Can't create temporary target file. Compilation results can't be saved locally. " + ex.getMessage(), ex);
+			}
 		}
 	}
 
@@ -210,54 +343,86 @@ public enum Targets implements CompileParameter, ParameterParser {
 		final List<File> dsls = DslPath.getDslPaths(context);
 		final List<Settings.Option> settings = Settings.get(context);
 		final String temp = TempPath.getTempProjectPath(context).getAbsolutePath();
-		final File compiler = new File(context.get(DslCompiler.INSTANCE));
-		for (final Option t : targets) {
-			Map<String, String> files =
-					DslCompiler.compile(
-							context,
-							compiler,
-							t.value,
-							settings,
-							context.get(Namespace.INSTANCE),
-							dsls);
+		final File compiler = DslCompiler.getCompiler(context);
+		final String namespace = context.get(Namespace.INSTANCE);
+		final Map<Option, Map<String, String>> memory = inMemoryTargets(context, targets);
+		boolean compiled = false;
+		if (targets.size() > 1) {
+			final StringBuilder sb = new StringBuilder();
+			for (final Option t : targets) {
+				sb.append(t.value).append(',');
+			}
+			final TargetFiles files = new TargetFiles(temp, targets, memory);
 			try {
-				for (final Map.Entry<String, String> kv : files.entrySet()) {
-					final String fullName = t.value + "/" + kv.getKey() + t.extension;
-					saveFile(context, temp, t.convertToPath, fullName, kv.getValue());
+				DslCompiler.compile(context, compiler, sb.substring(0, sb.length() - 1), settings, namespace, dsls, files);
+				compiled = files.unassigned == null;
+				if (!compiled) {
+					context.log("Compiler didn't group files by target (found " + files.unassigned + "). Compiling each target separately...");
+				}
+			} catch (ExitException ex) {
+				context.show("Compiler failed to process all targets at once. Compiling each target separately...");
+			}
+			if (!compiled) {
+				for (final Map<String, String> sources : memory.values()) {
+					sources.clear();
+				}
+				for (final Option t : targets) {
+					final File path = new File(temp, t.value);
+					try {
+						if (path.exists()) {
+							Utils.deletePath(path);
+						}
+					} catch (IOException ex) {
+						context.error("Failed to clean temporary target folder: " + path.getAbsolutePath());
+						context.error(ex);
+						throw new ExitException();
+					}
 				}
-			} catch (IOException e) {
-				context.error("Can't create temporary target file. Compilation results can't be saved locally.");
-				context.error(e);
-				throw new ExitException();
 			}
-			if (t.action != null) {
-				t.action.build(new File(temp, t.value), context);
+		}
+		if (!compiled) {
+			for (final Option t : targets) {
+				DslCompiler.compile(context, compiler, t.value, settings, namespace, dsls, new TargetFiles(temp, Collections.singletonList(t), memory));
 			}
 		}
+		final Map<Option, File> builds = new LinkedHashMap<Option, File>();
+		for (final Option t : targets) {
+			builds.put(t, new File(temp, t.value));
+		}
+		build(context, builds, memory);
 	}
 
 	private static void saveFile(
-			final Context context,
 			final String temp,
 			final boolean escapeName,
 			final String name,
-			final String content) throws ExitException, IOException {
+			final String content) throws IOException {
+		Utils.saveFile(createFile(temp, escapeName, name), content);
+	}
+
+	private static String relativePath(final boolean escapeName, final String name) {
+		if (!escapeName) {
+			return name;
+		}
 		final String nameOnly = name.contains(".") ? name.substring(0, name.lastIndexOf('.')) : name;
-		final File file = escapeName
-				? new File(temp, nameOnly.replace(".", "/") + name.substring(nameOnly.length()))
-				: new File(temp, name);
+		return nameOnly.replace(".", "/") + name.substring(nameOnly.length());
+	}
+
+	private static File createFile(
+			final String temp,
+			final boolean escapeName,
+			final String name) throws IOException {
+		final File file = new File(temp, relativePath(escapeName, name));
 		final File parentPath = file.getParentFile();
 		if (!parentPath.exists()) {
-			if (!parentPath.mkdirs()) {
-				context.error("Failed creating path for target file: " + parentPath.getAbsolutePath());
-				throw new ExitException();
+			if (!parentPath.mkdirs() && !parentPath.exists()) {
+				throw new IOException("Failed creating path for target file: " + parentPath.getAbsolutePath());
 			}
 		}
 		if (!file.createNewFile()) {
-			context.error("Failed creating target file: " + file.getAbsolutePath());
-			throw new ExitException();
+			throw new IOException("Failed creating target file: " + file.getAbsolutePath());
 		}
-		Utils.saveFile(file, content);
+		return file;
 	}
 
 	private void compileOnline(Context context, List<Option> targets) throws ExitException {
@@ -280,14 +445,6 @@ public enum Targets implements CompileParameter, ParameterParser {
 		if (settings.length() > 0) {
 			url.append("&options=").append(settings);
 		}
-		context.show("Compiling DSL online...");
-		final Either<String> response = DslServer.put(url.toString(), context, Utils.toJson(dsls));
-		if (!response.isSuccess()) {
-			context.error("Error compiling DSL to specified target.");
-			context.error(response.whyNot());
-			throw new ExitException();
-		}
-		final JsonObject files = JsonObject.readFrom(response.get());
 		final String temp = TempPath.getTempProjectPath(context).getAbsolutePath();
 		final Set<String> escapeNames = new HashSet<String>();
 		for (final Option t : targets) {
@@ -295,20 +452,151 @@ public enum Targets implements CompileParameter, ParameterParser {
 				escapeNames.add(t.platformName);
 			}
 		}
-		try {
-			for (final String name : files.names()) {
-				final boolean escapeName = name.contains("/") && escapeNames.contains(name.substring(0, name.indexOf("/")));
-				saveFile(context, temp, escapeName, name, files.get(name).asString());
+		final Map<Option, Map<String, String>> memory = inMemoryTargets(context, targets);
+		final Map<String, Option> memoryPlatforms = new HashMap<String, Option>();
+		for (final Option t : memory.keySet()) {
+			memoryPlatforms.put(t.platformName, t);
+		}
+		context.show("Compiling DSL online...");
+		final Utils.StreamProcessor processor = new Utils.StreamProcessor() {
+			@Override
+			public void process(final InputStream stream) throws IOException {
+				final JsonParser parser = new JsonParser(new InputStreamReader(stream, "UTF-8"), 8192);
+				try {
+					parser.parseStringMembers(new JsonParser.StringMemberHandler() {
+						@Override
+						public Writer member(final String name) throws IOException {
+							final int slash = name.indexOf('/');
+							final Option inMemory = slash == -1 ? null : memoryPlatforms.get(name.substring(0, slash));
+							if (inMemory != null) {
+								final String path = relativePath(inMemory.convertToPath, name.substring(slash + 1));
+								final Map<String, String> sources = memory.get(inMemory);
+								return new StringWriter() {
+									@Override
+									public void close() throws IOException {
+										super.close();
+										sources.put(path, toString());
+									}
+								};
+							}
+							final boolean escapeName = name.contains("/") && escapeNames.contains(name.substring(0, name.indexOf("/")));
+							final File file = createFile(temp, escapeName, name);
+							return new OutputStreamWriter(new FileOutputStream(file), "UTF-8");
+						}
+					});
+				} catch (ParseException ex) {
+					throw new IOException("Invalid response from server: " + ex.getMessage());
+				}
 			}
-		} catch (IOException e) {
-			context.error("Can't create temporary target file. Compilation results can't be saved locally.");
-			context.error(e);
+		};
+		Either<Boolean> response = DslServer.put(url.toString(), context, DslServer.toJson(context, dsls), processor);
+		if (DslServer.isMissingCachedDsl(context, response)) {
+			response = DslServer.put(url.toString(), context, Utils.toJson(dsls), processor);
+		}
+		if (!response.isSuccess()) {
+			context.error("Error compiling DSL to specified target.");
+			context.error(response.whyNot());
 			throw new ExitException();
 		}
+		final Map<Option, File> builds = new LinkedHashMap<Option, File>();
 		for (final Option t : targets) {
-			if (t.action != null) {
-				t.action.build(new File(temp, t.platformName), context);
+			builds.put(t, new File(temp, t.platformName));
+		}
+		build(context, builds, memory);
+	}
+
+	private static boolean checkTarget(final Context context, final Option target) throws ExitException {
+		final Instrumentation.Sample sample = Instrumentation.start(context, "check " + target.value);
+		try {
+			return target.action.check(context);
+		} finally {
+			Instrumentation.stop(context, sample);
+		}
+	}
+
+	private static void buildTarget(
+			final Context context,
+			final Option target,
+			final File sources,
+			final Map<Option, Map<String, String>> memory) throws ExitException {
+		final Instrumentation.Sample sample = Instrumentation.start(context, "build " + target.value);
+		try {
+			final Map<String, String> inMemory = memory.get(target);
+			final String fingerprint;
+			if (SkipUnchanged.isEnabled(context, target)) {
+				fingerprint = SkipUnchanged.changedFingerprint(context, target, sources, inMemory);
+				if (fingerprint == null) {
+					final File output = ((BuildOutput) target.action).getOutputs(context).get(0);
+					context.show("Generated sources for " + target.value + " didn't change. Keeping " + output.getAbsolutePath());
+					return;
+				}
+			} else {
+				fingerprint = null;
+			}
+			if (inMemory != null) {
+				((InMemoryBuild) target.action).build(inMemory, context);
+			} else {
+				target.action.build(sources, context);
+			}
+			SkipUnchanged.save(context, target, fingerprint);
+		} finally {
+			Instrumentation.stop(context, sample);
+		}
+	}
+
+	private static void build(
+			final Context context,
+			final Map<Option, File> builds,
+			final Map<Option, Map<String, String>> memory) throws ExitException {
+		final List<Map.Entry<Option, File>> actions = new ArrayList<Map.Entry<Option, File>>();
+		for (final Map.Entry<Option, File> kv : builds.entrySet()) {
+			if (kv.getKey().action != null) {
+				actions.add(kv);
+			}
+		}
+		final int workers = Math.min(Parallel.getWorkers(context), actions.size());
+		if (workers <= 1) {
+			for (final Map.Entry<Option, File> kv : actions) {
+				buildTarget(context, kv.getKey(), kv.getValue(), memory);
+			}
+			return;
+		}
+		context.show("Building " + actions.size() + " targets with " + workers + " parallel workers...");
+		final ExecutorService executor = Executors.newFixedThreadPool(workers);
+		final CompletionService<Option> completion = new ExecutorCompletionService<Option>(executor);
+		try {
+			for (final Map.Entry<Option, File> kv : actions) {
+				final Option t = kv.getKey();
+				final File sources = kv.getValue();
+				completion.submit(new Callable<Option>() {
+					@Override
+					public Option call() throws ExitException {
+						context.setPrefix("[" + t.value + "] ");
+						try {
+							buildTarget(context, t, sources, memory);
+							return t;
+						} finally {
+							context.setPrefix(null);
+						}
+					}
+				});
+			}
+			for (int i = 0; i < actions.size(); i++) {
+				try {
+					completion.take().get();
+				} catch (ExecutionException ex) {
+					if (!(ex.getCause() instanceof ExitException)) {
+						context.error("Unexpected error during target build.");
+						context.error(ex.getCause() instanceof Exception ? (Exception) ex.getCause() : ex);
+					}
+					throw new ExitException();
+				}
 			}
+		} catch (InterruptedException ex) {
+			context.error(ex);
+			throw new ExitException();
+		} finally {
+			executor.shutdownNow();
 		}
 	}
 
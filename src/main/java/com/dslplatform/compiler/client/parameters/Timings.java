@@ -0,0 +1,34 @@
+package com.dslplatform.compiler.client.parameters;
+
+import com.dslplatform.compiler.client.CompileParameter;
+import com.dslplatform.compiler.client.Context;
+
+public enum Timings implements CompileParameter {
+	INSTANCE;
+
+	@Override
+	public String getAlias() { return "timings"; }
+	@Override
+	public String getUsage() { return null; }
+
+	@Override
+	public boolean check(final Context context) {
+		return true;
+	}
+
+	@Override
+	public void run(final Context context) {
+	}
+
+	@Override
+	public String getShortDescription() {
+		return "Show time and resources used by each step";
+	}
+
+	@Override
+	public String getDetailedDescription() {
+		return "After the run, a table with the wall time, CPU time, time spent in external processes,\n" +
+				"HTTP traffic and upper bound of peak heap usage is shown for each parameter check, run and target build.\n" +
+				"Use it to find out whether download, compiler, target build tools or the database are taking most of the time.";
+	}
+}
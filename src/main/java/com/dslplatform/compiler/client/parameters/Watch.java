@@ -0,0 +1,175 @@
+package com.dslplatform.compiler.client.parameters;
+
+import com.dslplatform.compiler.client.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Set;
+
+public enum Watch implements CompileParameter {
+	INSTANCE;
+
+	@Override
+	public String getAlias() { return "watch"; }
+	@Override
+	public String getUsage() { return null; }
+
+	private static final long POLL_INTERVAL = 500;
+	private static final long DEBOUNCE = 300;
+
+	/**
+	 * Check DSL files for changes.
+	 * Files can be missing or incomplete for a moment while an editor saves them,
+	 * so errors only postpone the check until the next poll.
+	 *
+	 * @return changed files or null when files could not be checked
+	 */
+	private static Set<String> poll(final Context context) {
+		try {
+			return DslPath.refresh(context);
+		} catch (ExitException ex) {
+			context.log("Unable to check DSL files for changes. Will try again.");
+			return null;
+		}
+	}
+
+	/**
+	 * Wait until DSL files change and stop changing for a while,
+	 * so a save of multiple files (or an editor writing a file in several steps) triggers a single build.
+	 */
+	private static Set<String> awaitChanges(final Context context) throws InterruptedException {
+		Set<String> changes = poll(context);
+		while (changes == null || changes.isEmpty()) {
+			Thread.sleep(POLL_INTERVAL);
+			changes = poll(context);
+		}
+		Set<String> more;
+		do {
+			Thread.sleep(DEBOUNCE);
+			more = poll(context);
+			if (more != null) {
+				changes.addAll(more);
+			}
+		} while (more == null || !more.isEmpty());
+		return changes;
+	}
+
+	private static void cleanTemp(final Context context) throws ExitException {
+		final File temp = TempPath.getTempProjectPath(context);
+		if (temp == null || !temp.isDirectory()) {
+			return;
+		}
+		try {
+			Utils.deletePath(temp);
+		} catch (IOException ex) {
+			context.error("Failed to clean temporary folder: " + temp.getAbsolutePath());
+			context.error(ex);
+			throw new ExitException();
+		}
+	}
+
+	private static void measure(final Context context, final String name, final CompileParameter parameter) throws ExitException {
+		final Instrumentation.Sample sample = Instrumentation.startPhase(context, name);
+		try {
+			parameter.run(context);
+		} finally {
+			Instrumentation.stop(context, sample);
+		}
+	}
+
+	private static void rebuild(final Context context) throws ExitException {
+		cleanTemp(context);
+		final Instrumentation.Sample sample = Instrumentation.startPhase(context, "check " + Targets.INSTANCE.getAlias());
+		final boolean valid;
+		try {
+			valid = Targets.INSTANCE.check(context);
+		} finally {
+			Instrumentation.stop(context, sample);
+		}
+		if (!valid) {
+			throw new ExitException();
+		}
+		measure(context, "run " + Diff.INSTANCE.getAlias(), Diff.INSTANCE);
+		measure(context, "run " + Targets.INSTANCE.getAlias(), Targets.INSTANCE);
+		measure(context, "run " + Migration.INSTANCE.getAlias(), Migration.INSTANCE);
+	}
+
+	/**
+	 * Parameters which are run as part of each build in watch mode.
+	 * They are skipped during the regular processing, so an error in the first build doesn't stop watching.
+	 */
+	public static boolean isRebuilt(final Context context, final CompileParameter parameter) {
+		return context.contains(INSTANCE)
+				&& (parameter == Targets.INSTANCE || parameter == Diff.INSTANCE || parameter == Migration.INSTANCE);
+	}
+
+	/**
+	 * Targets are checked before each build in watch mode, since the check requires valid DSL.
+	 * Other parameters only validate options, so they are checked once as usual.
+	 */
+	public static boolean isCheckedOnBuild(final Context context, final CompileParameter parameter) {
+		return context.contains(INSTANCE) && parameter == Targets.INSTANCE;
+	}
+
+	private static void build(final Context context, final Set<String> changes) {
+		final long start = System.currentTimeMillis();
+		try {
+			rebuild(context);
+			if (changes != null) {
+				context.show("Rebuilt in " + (System.currentTimeMillis() - start) + "ms");
+			}
+		} catch (ExitException ex) {
+			context.error("Build failed. Waiting for the next change...");
+		} finally {
+			Instrumentation.report(context);
+		}
+	}
+
+	@Override
+	public boolean check(final Context context) {
+		if (context.contains(INSTANCE) && context.contains(ApplyMigration.INSTANCE)) {
+			context.error("Watch can't be used together with apply migration.");
+			return false;
+		}
+		return true;
+	}
+
+	@Override
+	public void run(final Context context) throws ExitException {
+		if (!context.contains(INSTANCE)) {
+			return;
+		}
+		poll(context);
+		build(context, null);
+		while (true) {
+			context.show();
+			context.show("Watching " + new File(context.get(DslPath.INSTANCE)).getAbsolutePath() + " for changes. Press Ctrl+C to stop.");
+			final Set<String> changes;
+			try {
+				changes = awaitChanges(context);
+			} catch (InterruptedException ex) {
+				return;
+			}
+			for (final String name : changes) {
+				context.show("Changed: " + name);
+			}
+			build(context, changes);
+		}
+	}
+
+	@Override
+	public String getShortDescription() {
+		return "Watch DSL files and rebuild on every change";
+	}
+
+	@Override
+	public String getDetailedDescription() {
+		return "After the initial build, DSL folder is checked for changes until the process is stopped.\n" +
+				"When DSL files change, only the changed files are read again, after which diff, targets and migration are run again.\n" +
+				"Since the process stays alive, downloaded dependencies, database info and the compiler in server mode are reused between builds.\n" +
+				"Apply migration is not supported in watch mode.\n" +
+				"\n" +
+				"Example:\n" +
+				"	-watch -target=java_client -dsl=./dsl -compiler -server-mode";
+	}
+}
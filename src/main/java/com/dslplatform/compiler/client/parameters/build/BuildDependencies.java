@@ -0,0 +1,10 @@
+package com.dslplatform.compiler.client.parameters.build;
+
+import com.dslplatform.compiler.client.Context;
+import com.dslplatform.compiler.client.ExitException;
+
+import java.io.File;
+
+public interface BuildDependencies {
+	public File getDependencies(final Context context) throws ExitException;
+}
@@ -0,0 +1,10 @@
+package com.dslplatform.compiler.client.parameters.build;
+
+import com.dslplatform.compiler.client.Context;
+
+import java.io.File;
+import java.util.List;
+
+public interface BuildOutput {
+	public List<File> getOutputs(final Context context);
+}
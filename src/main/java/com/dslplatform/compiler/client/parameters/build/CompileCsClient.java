@@ -7,8 +7,10 @@ import com.dslplatform.compiler.client.parameters.Download;
 import java.io.File;
 import java.io.FilenameFilter;
 import java.io.IOException;
+import java.util.Collections;
+import java.util.List;
 
-public class CompileCsClient implements BuildAction {
+public class CompileCsClient implements BuildAction, BuildOutput, BuildDependencies {
 
 	private final String name;
 	private final String zip;
@@ -91,11 +93,25 @@ public class CompileCsClient implements BuildAction {
 		return true;
 	}
 
+	private File getModel(final Context context) {
+		final String customDll = context.get(library);
+		return new File(customDll != null ? customDll : dll);
+	}
+
+	@Override
+	public List<File> getOutputs(final Context context) {
+		return Collections.singletonList(getModel(context));
+	}
+
+	@Override
+	public File getDependencies(final Context context) throws ExitException {
+		return Dependencies.getDependencies(context, name, library);
+	}
+
 	@Override
 	public void build(final File sources, final Context context) throws ExitException {
 		final File libDeps = Dependencies.getDependencies(context, name, library);
-		final String customDll = context.get(library);
-		final File model = new File(customDll != null ? customDll : dll);
+		final File model = getModel(context);
 		context.show("Compiling " + name + " library...");
 		final Either<String> compilation =
 				DotNetCompilation.compile(dependencies, libDeps, sources, model, context, force32Bit);
@@ -3,10 +3,15 @@ package com.dslplatform.compiler.client.parameters.build;
 import com.dslplatform.compiler.client.*;
 import com.dslplatform.compiler.client.parameters.Dependencies;
 import com.dslplatform.compiler.client.parameters.Download;
+import com.dslplatform.compiler.client.parameters.IncludeSources;
+import com.dslplatform.compiler.client.parameters.JavaPath;
 
 import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
 
-public class CompileJavaClient implements BuildAction {
+public class CompileJavaClient implements BuildAction, BuildOutput, BuildDependencies, InMemoryBuild {
 
 	private final String name;
 	private final String zip;
@@ -32,12 +37,47 @@ public class CompileJavaClient implements BuildAction {
 		return Download.checkJars(context, name, zip, library, maven);
 	}
 
+	private File getModel(final Context context) {
+		final String customJar = context.get(library);
+		return new File(customJar != null ? customJar : jar);
+	}
+
+	@Override
+	public List<File> getOutputs(final Context context) {
+		final List<File> outputs = new ArrayList<File>(2);
+		final File model = getModel(context);
+		outputs.add(model);
+		if (context.contains(IncludeSources.INSTANCE)) {
+			outputs.add(JavaPath.getSourcesArchive(model));
+		}
+		return outputs;
+	}
+
+	@Override
+	public File getDependencies(final Context context) throws ExitException {
+		return Dependencies.getDependencies(context, name, library);
+	}
+
 	@Override
 	public void build(final File sources, final Context context) throws ExitException {
 		final File libDeps = Dependencies.getDependencies(context, name, library);
-		final String customJar = context.get(library);
-		final File model = new File(customJar != null ? customJar : jar);
-		final Either<String> compilation = JavaCompilation.compile(library, libDeps, sources, model, context);
+		final File model = getModel(context);
+		verify(context, model, JavaCompilation.compile(library, libDeps, sources, model, context));
+	}
+
+	@Override
+	public boolean supportsInMemory(final Context context) {
+		return JavaCompilation.supportsInMemory(context);
+	}
+
+	@Override
+	public void build(final Map<String, String> sources, final Context context) throws ExitException {
+		final File libDeps = Dependencies.getDependencies(context, name, library);
+		final File model = getModel(context);
+		verify(context, model, JavaCompilation.compileInMemory(libDeps, sources, model, context));
+	}
+
+	private void verify(final Context context, final File model, final Either<String> compilation) throws ExitException {
 		if (!compilation.isSuccess()) {
 			context.error("Error during " + name + " library compilation.");
 			context.error(compilation.whyNot());
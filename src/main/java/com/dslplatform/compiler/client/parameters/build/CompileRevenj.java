@@ -4,13 +4,15 @@ import com.dslplatform.compiler.client.*;
 import com.dslplatform.compiler.client.parameters.Dependencies;
 import com.dslplatform.compiler.client.parameters.Download;
 
-import javax.net.ssl.HttpsURLConnection;
 import java.io.File;
 import java.io.FilenameFilter;
 import java.io.IOException;
+import java.net.HttpURLConnection;
 import java.net.URL;
+import java.util.Collections;
+import java.util.List;
 
-public class CompileRevenj implements BuildAction {
+public class CompileRevenj implements BuildAction, BuildOutput, BuildDependencies {
 
 	@Override
 	public boolean check(final Context context) throws ExitException {
@@ -36,7 +38,7 @@ public class CompileRevenj implements BuildAction {
 			try {
 				context.show("Downloading Revenj from Github...");
 				final URL latest = new URL("https://github.com/ngs-doo/revenj/releases/latest");
-				final HttpsURLConnection conn = (HttpsURLConnection) latest.openConnection();
+				final HttpURLConnection conn = HttpTransport.open(latest);
 				conn.setInstanceFollowRedirects(false);
 				conn.setUseCaches(false);
 				conn.connect();
@@ -44,10 +46,17 @@ public class CompileRevenj implements BuildAction {
 					context.error("Error downloading Revenj from Github. Expecting redirect. Got: " + conn.getResponseCode());
 					return false;
 				}
+				HttpTransport.release(conn.getInputStream());
 				final String redirect = conn.getHeaderField("Location");
 				final String tag = redirect.substring(redirect.lastIndexOf('/') + 1);
 				final URL httpServer = new URL("https://github.com/ngs-doo/revenj/releases/download/" + tag + "/http-server.zip");
-				Utils.unpackZip(context, revenjDeps, httpServer);
+				final File cached = ArtifactCache.resolve(context, "revenj-http-server", tag, new ArtifactCache.Installer() {
+					@Override
+					public void install(final File folder) throws IOException {
+						Utils.unpackZip(context, folder, httpServer);
+					}
+				});
+				ArtifactCache.materialize(context, cached, revenjDeps);
 			} catch (IOException ex) {
 				context.error("Unable to download Revenj from Github.");
 				context.error(ex);
@@ -90,11 +99,25 @@ public class CompileRevenj implements BuildAction {
 			"System.Runtime.Serialization.dll"
 	};
 
+	private static File getModel(final Context context) {
+		final String customDll = context.get("revenj");
+		return new File(customDll != null ? customDll : "./GeneratedModel.dll");
+	}
+
+	@Override
+	public List<File> getOutputs(final Context context) {
+		return Collections.singletonList(getModel(context));
+	}
+
+	@Override
+	public File getDependencies(final Context context) throws ExitException {
+		return Dependencies.getDependencies(context, "Revenj", "revenj");
+	}
+
 	@Override
 	public void build(final File sources, final Context context) throws ExitException {
 		final File revenjDeps = Dependencies.getDependencies(context, "Revenj", "revenj");
-		final String customDll = context.get("revenj");
-		final File model = new File(customDll != null ? customDll : "./GeneratedModel.dll");
+		final File model = getModel(context);
 		context.show("Compiling Revenj library...");
 		final Either<String> compilation =
 				DotNetCompilation.compile(DEPENDENCIES, revenjDeps, sources, model, context, false);
@@ -3,21 +3,45 @@ package com.dslplatform.compiler.client.parameters.build;
 import com.dslplatform.compiler.client.*;
 import com.dslplatform.compiler.client.parameters.Dependencies;
 import com.dslplatform.compiler.client.parameters.Download;
+import com.dslplatform.compiler.client.parameters.IncludeSources;
+import com.dslplatform.compiler.client.parameters.JavaPath;
 
 import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
 
-public class CompileScalaClient implements BuildAction {
+public class CompileScalaClient implements BuildAction, BuildOutput, BuildDependencies {
 
 	@Override
 	public boolean check(final Context context) throws ExitException {
 		return Download.checkJars(context, "Scala client", "scala-client", "scala_client", "dsl-client-scala_2.10");
 	}
 
+	private static File getModel(final Context context) {
+		final String customJar = context.get("scala_client");
+		return new File(customJar != null ? customJar : "./generated-model-scala.jar");
+	}
+
+	@Override
+	public List<File> getOutputs(final Context context) {
+		final List<File> outputs = new ArrayList<File>(2);
+		final File model = getModel(context);
+		outputs.add(model);
+		if (context.contains(IncludeSources.INSTANCE)) {
+			outputs.add(JavaPath.getSourcesArchive(model));
+		}
+		return outputs;
+	}
+
+	@Override
+	public File getDependencies(final Context context) throws ExitException {
+		return Dependencies.getDependencies(context, "Scala client", "scala_client");
+	}
+
 	@Override
 	public void build(final File sources, final Context context) throws ExitException {
 		final File libDeps = Dependencies.getDependencies(context, "Scala client", "scala_client");
-		final String customJar = context.get("scala_client");
-		final File model = new File(customJar != null ? customJar : "./generated-model-scala.jar");
+		final File model = getModel(context);
 		final Either<String> compilation = ScalaCompilation.compile("scala_client", libDeps, sources, model, context);
 		if (!compilation.isSuccess()) {
 			context.error("Error during Scala client library compilation.");
@@ -0,0 +1,12 @@
+package com.dslplatform.compiler.client.parameters.build;
+
+import com.dslplatform.compiler.client.Context;
+import com.dslplatform.compiler.client.ExitException;
+
+import java.util.Map;
+
+public interface InMemoryBuild {
+	public boolean supportsInMemory(final Context context);
+
+	public void build(final Map<String, String> sources, final Context context) throws ExitException;
+}
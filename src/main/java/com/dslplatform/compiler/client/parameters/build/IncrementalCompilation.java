@@ -0,0 +1,542 @@
+package com.dslplatform.compiler.client.parameters.build;
+
+import com.dslplatform.compiler.client.ArtifactCache;
+import com.dslplatform.compiler.client.Context;
+import com.dslplatform.compiler.client.Either;
+import com.dslplatform.compiler.client.JarArchiver;
+import com.dslplatform.compiler.client.Utils;
+import com.dslplatform.compiler.client.parameters.Incremental;
+
+import javax.tools.*;
+import java.io.*;
+import java.nio.channels.FileLock;
+import java.nio.charset.Charset;
+import java.util.*;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Class level incremental compilation of generated Java sources.
+ * Each output has a workspace with the compiled classes and an index with the hash of each source,
+ * classes compiled from each source and classes referenced by each class (read from the constant pool).
+ * <p>
+ * Changed and removed sources are compiled again together with their subclasses (since inherited members can change)
+ * and sources whose classes reference any of those classes.
+ * Sources further down the dependency chain don't need to be compiled, since API of the other classes can't change.
+ * Since compile time constants are copied into classes which use them, without a reference to the declaring class,
+ * change of a class with non private constants causes compilation from scratch.
+ * Workspace is also compiled from scratch when dependencies or JDK change or when incremental compilation fails.
+ * File lock prevents concurrent builds (such as watch and a manual build) from using the same workspace at the same time.
+ */
+class IncrementalCompilation {
+
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+	private static final String INDEX_NAME = "index.txt";
+	private static final int ACC_PRIVATE = 0x0002;
+	private static final Pattern DESCRIPTOR_CLASS = Pattern.compile("L([\\w/$]+);");
+
+	static class ClassInfo {
+		final Set<String> references = new HashSet<String>();
+		final Set<String> supertypes = new HashSet<String>();
+		boolean constants;
+	}
+
+	static class Index {
+		private final String classpath;
+		final Map<String, String> hashes = new HashMap<String, String>();
+		final Map<String, Set<String>> classes = new HashMap<String, Set<String>>();
+		final Map<String, Set<String>> references = new HashMap<String, Set<String>>();
+		final Map<String, Set<String>> supertypes = new HashMap<String, Set<String>>();
+		final Set<String> constants = new HashSet<String>();
+
+		Index(final String classpath) {
+			this.classpath = classpath;
+		}
+
+		void add(final String name, final ClassInfo info) {
+			references.put(name, info.references);
+			supertypes.put(name, info.supertypes);
+			if (info.constants) {
+				constants.add(name);
+			}
+		}
+
+		private void remove(final String source, final File classesDir) {
+			hashes.remove(source);
+			final Set<String> compiled = classes.remove(source);
+			if (compiled == null) {
+				return;
+			}
+			for (final String c : compiled) {
+				references.remove(c);
+				supertypes.remove(c);
+				constants.remove(c);
+				new File(classesDir, c + ".class").delete();
+			}
+		}
+	}
+
+	static File getWorkspace(final File output) {
+		return new File(Incremental.getWorkspaceRoot(), Utils.sha1(output.getAbsolutePath()).substring(0, 16));
+	}
+
+	private static String classpathKey(final File[] jars) {
+		final File[] sorted = jars.clone();
+		Arrays.sort(sorted);
+		final StringBuilder sb = new StringBuilder();
+		sb.append(System.getProperty("java.home")).append(':').append(System.getProperty("java.version")).append('\n');
+		for (final File j : sorted) {
+			sb.append(j.getAbsolutePath()).append(':').append(j.length()).append(':').append(j.lastModified()).append('\n');
+		}
+		return Utils.sha1(sb.toString());
+	}
+
+	private static String join(final Set<String> values) {
+		final StringBuilder sb = new StringBuilder();
+		for (final String v : values) {
+			if (sb.length() > 0) {
+				sb.append(',');
+			}
+			sb.append(v);
+		}
+		return sb.toString();
+	}
+
+	private static Set<String> split(final String value) {
+		final Set<String> result = new HashSet<String>();
+		if (value.length() > 0) {
+			Collections.addAll(result, value.split(","));
+		}
+		return result;
+	}
+
+	private static Index readIndex(final File workspace) {
+		final File file = new File(workspace, INDEX_NAME);
+		if (!file.isFile()) {
+			return null;
+		}
+		try {
+			final BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), UTF8));
+			try {
+				final String header = reader.readLine();
+				if (header == null || !header.startsWith("classpath\t")) {
+					return null;
+				}
+				final Index index = new Index(header.substring("classpath\t".length()));
+				String line;
+				while ((line = reader.readLine()) != null) {
+					final String[] parts = line.split("\t", -1);
+					if ("source".equals(parts[0]) && parts.length == 4) {
+						index.hashes.put(parts[1], parts[2]);
+						index.classes.put(parts[1], split(parts[3]));
+					} else if ("class".equals(parts[0]) && parts.length == 5) {
+						index.references.put(parts[1], split(parts[2]));
+						index.supertypes.put(parts[1], split(parts[3]));
+						if ("constants".equals(parts[4])) {
+							index.constants.add(parts[1]);
+						}
+					} else {
+						return null;
+					}
+				}
+				return index;
+			} finally {
+				reader.close();
+			}
+		} catch (IOException ignore) {
+			return null;
+		}
+	}
+
+	private static void writeIndex(final File workspace, final Index index) throws IOException {
+		final Writer writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(new File(workspace, INDEX_NAME)), UTF8));
+		try {
+			writer.write("classpath\t" + index.classpath + "\n");
+			for (final Map.Entry<String, String> kv : index.hashes.entrySet()) {
+				writer.write("source\t" + kv.getKey() + "\t" + kv.getValue() + "\t" + join(index.classes.get(kv.getKey())) + "\n");
+			}
+			for (final Map.Entry<String, Set<String>> kv : index.references.entrySet()) {
+				writer.write("class\t" + kv.getKey() + "\t" + join(kv.getValue()) + "\t" + join(index.supertypes.get(kv.getKey()))
+						+ "\t" + (index.constants.contains(kv.getKey()) ? "constants" : "") + "\n");
+			}
+		} finally {
+			writer.close();
+		}
+	}
+
+	private static void skip(final DataInputStream is, final int bytes) throws IOException {
+		if (is.skipBytes(bytes) != bytes) {
+			throw new EOFException();
+		}
+	}
+
+	/**
+	 * Find classes referenced from the class file constant pool, superclass and interfaces
+	 * and check if class declares non private compile time constants.
+	 * Besides class entries, field and method descriptors are checked,
+	 * since types used only in signatures don't have their own class entry.
+	 */
+	static ClassInfo readClass(final byte[] bytes) throws IOException {
+		final DataInputStream is = new DataInputStream(new ByteArrayInputStream(bytes));
+		if (is.readInt() != 0xCAFEBABE) {
+			throw new IOException("Invalid class file");
+		}
+		skip(is, 4);
+		final int count = is.readUnsignedShort();
+		final String[] strings = new String[count];
+		final List<Integer> classEntries = new ArrayList<Integer>();
+		for (int i = 1; i < count; i++) {
+			final int tag = is.readUnsignedByte();
+			switch (tag) {
+				case 1:
+					strings[i] = is.readUTF();
+					break;
+				case 7:
+					classEntries.add(i);
+					classEntries.add(is.readUnsignedShort());
+					break;
+				case 8:
+				case 16:
+				case 19:
+				case 20:
+					skip(is, 2);
+					break;
+				case 15:
+					skip(is, 3);
+					break;
+				case 3:
+				case 4:
+				case 9:
+				case 10:
+				case 11:
+				case 12:
+				case 17:
+				case 18:
+					skip(is, 4);
+					break;
+				case 5:
+				case 6:
+					skip(is, 8);
+					i++;
+					break;
+				default:
+					throw new IOException("Unknown constant pool tag: " + tag);
+			}
+		}
+		final Map<Integer, String> classNames = new HashMap<Integer, String>();
+		for (int i = 0; i < classEntries.size(); i += 2) {
+			classNames.put(classEntries.get(i), strings[classEntries.get(i + 1)]);
+		}
+		final ClassInfo info = new ClassInfo();
+		skip(is, 4);
+		final String superclass = classNames.get(is.readUnsignedShort());
+		if (superclass != null) {
+			info.supertypes.add(superclass);
+		}
+		final int interfaces = is.readUnsignedShort();
+		for (int i = 0; i < interfaces; i++) {
+			info.supertypes.add(classNames.get(is.readUnsignedShort()));
+		}
+		final int fields = is.readUnsignedShort();
+		for (int i = 0; i < fields; i++) {
+			final int access = is.readUnsignedShort();
+			skip(is, 4);
+			final int attributes = is.readUnsignedShort();
+			for (int j = 0; j < attributes; j++) {
+				final String attribute = strings[is.readUnsignedShort()];
+				skip(is, is.readInt());
+				if ((access & ACC_PRIVATE) == 0 && "ConstantValue".equals(attribute)) {
+					info.constants = true;
+				}
+			}
+		}
+		for (final String name : classNames.values()) {
+			if (name != null && !name.startsWith("[")) {
+				info.references.add(name);
+			}
+		}
+		for (final String s : strings) {
+			if (s != null && s.indexOf(';') != -1) {
+				final Matcher matcher = DESCRIPTOR_CLASS.matcher(s);
+				while (matcher.find()) {
+					info.references.add(matcher.group(1));
+				}
+			}
+		}
+		return info;
+	}
+
+	private static Either<Boolean> compileSources(
+			final JavaCompiler compiler,
+			final File[] jars,
+			final File classesDir,
+			final Map<String, String> sources,
+			final Index index,
+			final DiagnosticCollector<JavaFileObject> diagnostics) {
+		final List<JavaFileObject> units = new ArrayList<JavaFileObject>(sources.size());
+		final Map<String, Set<String>> compiled = new HashMap<String, Set<String>>();
+		for (final Map.Entry<String, String> kv : sources.entrySet()) {
+			units.add(new JavaCompilation.MemorySource(kv.getKey(), kv.getValue()));
+			compiled.put(kv.getKey(), new HashSet<String>());
+		}
+		final StandardJavaFileManager standard = compiler.getStandardFileManager(null, null, UTF8);
+		try {
+			final List<File> classpath = new ArrayList<File>(Arrays.asList(jars));
+			classpath.add(classesDir);
+			standard.setLocation(StandardLocation.CLASS_PATH, classpath);
+			standard.setLocation(StandardLocation.CLASS_OUTPUT, Collections.singletonList(classesDir));
+			final JavaFileManager fileManager = new ForwardingJavaFileManager<StandardJavaFileManager>(standard) {
+				@Override
+				public JavaFileObject getJavaFileForOutput(
+						final Location location,
+						final String className,
+						final JavaFileObject.Kind kind,
+						final FileObject sibling) throws IOException {
+					if (kind == JavaFileObject.Kind.CLASS && sibling instanceof JavaCompilation.MemorySource) {
+						compiled.get(((JavaCompilation.MemorySource) sibling).path).add(className.replace('.', '/'));
+					}
+					return super.getJavaFileForOutput(location, className, kind, sibling);
+				}
+			};
+			final JavaCompiler.CompilationTask task = compiler.getTask(
+					null,
+					fileManager,
+					diagnostics,
+					Arrays.asList("-encoding", "UTF8"),
+					null,
+					units);
+			if (!task.call()) {
+				return Either.success(false);
+			}
+			for (final Map.Entry<String, Set<String>> kv : compiled.entrySet()) {
+				index.hashes.put(kv.getKey(), Utils.sha1(sources.get(kv.getKey())));
+				index.classes.put(kv.getKey(), kv.getValue());
+				for (final String c : kv.getValue()) {
+					index.add(c, readClass(Utils.readBytes(new File(classesDir, c + ".class"))));
+				}
+			}
+			return Either.success(true);
+		} catch (IOException ex) {
+			return Either.fail(ex);
+		} finally {
+			JavaCompilation.close(standard);
+		}
+	}
+
+	/**
+	 * Find sources which have to be compiled: new and changed sources, subclasses of their classes
+	 * and sources which reference any of those classes.
+	 *
+	 * @param removed populated with sources which were removed since the last compilation
+	 * @return sources to compile or null when changed classes declare constants and all sources must be compiled
+	 */
+	static Map<String, String> findChanges(final Index index, final Map<String, String> sources, final Set<String> removed) {
+		final Set<String> changed = new HashSet<String>();
+		for (final Map.Entry<String, String> kv : sources.entrySet()) {
+			if (!Utils.sha1(kv.getValue()).equals(index.hashes.get(kv.getKey()))) {
+				changed.add(kv.getKey());
+			}
+		}
+		for (final String s : index.hashes.keySet()) {
+			if (!sources.containsKey(s)) {
+				removed.add(s);
+			}
+		}
+		final Set<String> affected = new HashSet<String>();
+		for (final String s : changed) {
+			final Set<String> compiled = index.classes.get(s);
+			if (compiled != null) {
+				affected.addAll(compiled);
+			}
+		}
+		for (final String s : removed) {
+			affected.addAll(index.classes.get(s));
+		}
+		if (!Collections.disjoint(affected, index.constants)) {
+			return null;
+		}
+		boolean expanded = !affected.isEmpty();
+		while (expanded) {
+			expanded = false;
+			for (final Map.Entry<String, Set<String>> kv : index.supertypes.entrySet()) {
+				if (!affected.contains(kv.getKey()) && !Collections.disjoint(kv.getValue(), affected)) {
+					affected.add(kv.getKey());
+					expanded = true;
+				}
+			}
+		}
+		final Map<String, String> result = new HashMap<String, String>();
+		for (final String s : changed) {
+			result.put(s, sources.get(s));
+		}
+		if (affected.isEmpty()) {
+			return result;
+		}
+		for (final Map.Entry<String, Set<String>> kv : index.classes.entrySet()) {
+			if (result.containsKey(kv.getKey()) || !sources.containsKey(kv.getKey())) {
+				continue;
+			}
+			for (final String c : kv.getValue()) {
+				final Set<String> references = index.references.get(c);
+				if (references != null && !Collections.disjoint(references, affected)) {
+					result.put(kv.getKey(), sources.get(kv.getKey()));
+					break;
+				}
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * @return compilation result or null when all sources must be compiled
+	 */
+	private static Either<Boolean> compileChanges(
+			final JavaCompiler compiler,
+			final File[] jars,
+			final File workspace,
+			final File classesDir,
+			final Index index,
+			final Map<String, String> sources,
+			final File output,
+			final DiagnosticCollector<JavaFileObject> diagnostics,
+			final Context context) throws IOException {
+		final Set<String> removed = new HashSet<String>();
+		final Map<String, String> changes = findChanges(index, sources, removed);
+		if (changes == null) {
+			context.log("Changed Java classes declare constants which could be used in other classes.");
+			return null;
+		}
+		if (changes.isEmpty() && removed.isEmpty()) {
+			context.show("No Java sources changed for " + output.getName());
+			return Either.success(true);
+		}
+		context.show("Compiling " + changes.size() + " of " + sources.size() + " Java sources for " + output.getName() + "...");
+		new File(workspace, INDEX_NAME).delete();
+		for (final String s : removed) {
+			index.remove(s, classesDir);
+		}
+		for (final String s : changes.keySet()) {
+			index.remove(s, classesDir);
+		}
+		if (!changes.isEmpty()) {
+			final Either<Boolean> compiled = compileSources(compiler, jars, classesDir, changes, index, diagnostics);
+			if (!compiled.isSuccess() || !compiled.get()) {
+				return compiled;
+			}
+		}
+		writeIndex(workspace, index);
+		return Either.success(true);
+	}
+
+	private static Either<Boolean> compileAll(
+			final JavaCompiler compiler,
+			final File[] jars,
+			final File workspace,
+			final File classesDir,
+			final String classpath,
+			final Map<String, String> sources,
+			final File output,
+			final DiagnosticCollector<JavaFileObject> diagnostics,
+			final Context context) throws IOException {
+		context.show("Compiling all " + sources.size() + " Java sources for " + output.getName() + "...");
+		new File(workspace, INDEX_NAME).delete();
+		if (classesDir.exists()) {
+			Utils.deletePath(classesDir);
+		} else if (!classesDir.mkdirs()) {
+			throw new IOException("Unable to create workspace folder: " + classesDir.getAbsolutePath());
+		}
+		final Index index = new Index(classpath);
+		final Either<Boolean> compiled = compileSources(compiler, jars, classesDir, sources, index, diagnostics);
+		if (compiled.isSuccess() && compiled.get()) {
+			writeIndex(workspace, index);
+		}
+		return compiled;
+	}
+
+	/**
+	 * Compile sources using the workspace of the output and package all workspace classes into the output jar.
+	 *
+	 * @return compilation warnings
+	 */
+	static Either<String> compile(
+			final JavaCompiler compiler,
+			final File[] jars,
+			final Map<String, String> sources,
+			final File output,
+			final int level,
+			final Context context) {
+		final Map<String, String> javaSources = new HashMap<String, String>();
+		for (final Map.Entry<String, String> kv : sources.entrySet()) {
+			if (kv.getKey().endsWith(".java")) {
+				javaSources.put(kv.getKey(), kv.getValue());
+			}
+		}
+		if (javaSources.isEmpty()) {
+			return Either.fail("No Java sources generated for " + output.getName());
+		}
+		final File workspace = getWorkspace(output);
+		final File root = workspace.getParentFile();
+		if (!root.isDirectory() && !root.mkdirs() && !root.isDirectory()) {
+			return Either.fail("Unable to create Java workspace folder: " + root.getAbsolutePath());
+		}
+		synchronized (ArtifactCache.lockFor(workspace.getAbsolutePath())) {
+			try {
+				final RandomAccessFile lockFile = new RandomAccessFile(new File(workspace.getPath() + ".lock"), "rw");
+				try {
+					final FileLock lock = lockFile.getChannel().lock();
+					try {
+						return compile(compiler, jars, javaSources, workspace, output, level, context);
+					} finally {
+						lock.release();
+					}
+				} finally {
+					lockFile.close();
+				}
+			} catch (IOException ex) {
+				return Either.fail("Unable to lock Java workspace: " + workspace.getAbsolutePath(), ex);
+			}
+		}
+	}
+
+	private static Either<String> compile(
+			final JavaCompiler compiler,
+			final File[] jars,
+			final Map<String, String> javaSources,
+			final File workspace,
+			final File output,
+			final int level,
+			final Context context) {
+		final File classesDir = new File(workspace, "classes");
+		final String classpath = classpathKey(jars);
+		try {
+			final Index index = readIndex(workspace);
+			DiagnosticCollector<JavaFileObject> diagnostics = new DiagnosticCollector<JavaFileObject>();
+			Either<Boolean> compiled = null;
+			if (index != null && classpath.equals(index.classpath) && classesDir.isDirectory()) {
+				compiled = compileChanges(compiler, jars, workspace, classesDir, index, javaSources, output, diagnostics, context);
+				if (compiled != null && (!compiled.isSuccess() || !compiled.get())) {
+					context.log("Incremental compilation failed. Compiling all sources...");
+					diagnostics = new DiagnosticCollector<JavaFileObject>();
+					compiled = null;
+				}
+			} else {
+				context.log("Workspace for " + output.getName() + " not found or dependencies or JDK changed.");
+			}
+			if (compiled == null) {
+				compiled = compileAll(compiler, jars, workspace, classesDir, classpath, javaSources, output, diagnostics, context);
+			}
+			if (!compiled.isSuccess()) {
+				return Either.fail(compiled.whyNot());
+			}
+			if (!compiled.get()) {
+				final String errors = JavaCompilation.describe(diagnostics, Diagnostic.Kind.ERROR);
+				return Either.fail(errors.length() > 0 ? errors : "Java compilation failed for " + output.getName());
+			}
+			final int count = JarArchiver.archive(classesDir, ".class", output, level);
+			context.log("Archived " + count + " classes into " + output.getAbsolutePath());
+			return Either.success(JavaCompilation.describe(diagnostics, Diagnostic.Kind.WARNING));
+		} catch (IOException ex) {
+			return Either.fail("Unable to use Java workspace: " + workspace.getAbsolutePath(), ex);
+		}
+	}
+}
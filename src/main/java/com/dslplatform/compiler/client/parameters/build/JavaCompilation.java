@@ -2,35 +2,49 @@ package com.dslplatform.compiler.client.parameters.build;
 
 import com.dslplatform.compiler.client.Context;
 import com.dslplatform.compiler.client.Either;
+import com.dslplatform.compiler.client.JarArchiver;
 import com.dslplatform.compiler.client.Utils;
+import com.dslplatform.compiler.client.parameters.IncludeSources;
+import com.dslplatform.compiler.client.parameters.Incremental;
+import com.dslplatform.compiler.client.parameters.JarCompression;
 import com.dslplatform.compiler.client.parameters.JavaPath;
 
-import java.io.File;
-import java.io.FilenameFilter;
-import java.util.ArrayList;
-import java.util.Arrays;
-import java.util.List;
+import javax.tools.*;
+import java.io.*;
+import java.net.URI;
+import java.nio.charset.Charset;
+import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
 
+/**
+ * Java targets are compiled with the compiler from the running JDK when available.
+ * File managers keep dependency jars open, so a new one is used for each compilation and closed afterwards.
+ * External javac is used when running on a JRE or when custom Java path is specified.
+ */
 class JavaCompilation {
 
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
 	static Either<String> compile(
 			final String name,
 			final File libraries,
 			final File source,
 			final File output,
 			final Context context) {
-		if (output.exists() && !output.isDirectory()) {
-			if (!output.delete()) {
-				return Either.fail("Failed to remove previous Java model: " + output.getAbsolutePath());
+		if (context.contains(Incremental.INSTANCE) && supportsInMemory(context)) {
+			final Either<Map<String, String>> sources = readSources(source);
+			if (!sources.isSuccess()) {
+				return Either.fail(sources.whyNot());
 			}
-		} else if (output.exists() && output.isDirectory()) {
-			return Either.fail("Expecting to find file. Found folder at: " + output.getAbsolutePath());
+			return compileInMemory(libraries, sources.get(), output, context);
 		}
-		final Either<String> tryCompiler = JavaPath.findCompiler(context);
-		if (!tryCompiler.isSuccess()) {
-			return Either.fail(tryCompiler.whyNot());
+		final Either<File[]> prepared = prepare(libraries, output);
+		if (!prepared.isSuccess()) {
+			return Either.fail(prepared.whyNot());
 		}
-		final String javac = tryCompiler.get();
+		final File[] externalJars = prepared.get();
 		final File classOut = new File(source, "compile-" + name);
 		if (classOut.exists() && !classOut.delete()) {
 			return Either.fail("Can't remove folder with compiled files: " + classOut.getAbsolutePath());
@@ -38,17 +52,314 @@ class JavaCompilation {
 		if (!classOut.mkdirs()) {
 			return Either.fail("Error creating temporary folder for Java class files: " + classOut.getAbsolutePath());
 		}
-		final int len = source.getAbsolutePath().length() + 1;
+
+		final JavaCompiler compiler = context.contains(JavaPath.INSTANCE) ? null : ToolProvider.getSystemJavaCompiler();
+		final Either<String> compilation = compiler != null
+				? compileInProcess(compiler, source, classOut, output, externalJars, context)
+				: compileExternal(name, source, output, externalJars, context);
+		if (!compilation.isSuccess()) {
+			return compilation;
+		}
+
+		final Either<Boolean> tryArchive = JavaPath.makeArchive(context, source, classOut, output);
+		if (!tryArchive.isSuccess()) {
+			return Either.fail(tryArchive.whyNot());
+		}
+		return compilation;
+	}
+
+	/**
+	 * Remove previous output and find dependencies used for compilation.
+	 */
+	private static Either<File[]> prepare(final File libraries, final File output) {
+		if (output.exists() && !output.isDirectory()) {
+			if (!output.delete()) {
+				return Either.fail("Failed to remove previous Java model: " + output.getAbsolutePath());
+			}
+		} else if (output.exists() && output.isDirectory()) {
+			return Either.fail("Expecting to find file. Found folder at: " + output.getAbsolutePath());
+		}
 		final File[] externalJars = libraries.listFiles(new FilenameFilter() {
 			@Override
 			public boolean accept(final File dir, final String name) {
 				return name.toLowerCase().endsWith(".jar");
 			}
 		});
-		if (externalJars.length == 0) {
+		if (externalJars == null || externalJars.length == 0) {
 			return Either.fail("Unable to find dependencies in: " + libraries.getAbsolutePath());
 		}
+		return Either.success(externalJars);
+	}
+
+	static boolean supportsInMemory(final Context context) {
+		return !context.contains(JavaPath.INSTANCE) && ToolProvider.getSystemJavaCompiler() != null;
+	}
+
+	static class MemorySource extends SimpleJavaFileObject {
+		final String path;
+		private final String content;
+
+		MemorySource(final String path, final String content) {
+			super(URI.create("memory:///" + path), Kind.SOURCE);
+			this.path = path;
+			this.content = content;
+		}
+
+		@Override
+		public CharSequence getCharContent(final boolean ignoreEncodingErrors) {
+			return content;
+		}
+	}
+
+	private static class MemoryClass extends SimpleJavaFileObject {
+		private final String path;
+		private final Map<String, byte[]> classes;
+
+		MemoryClass(final String path, final Map<String, byte[]> classes) {
+			super(URI.create("memory:///" + path), Kind.CLASS);
+			this.path = path;
+			this.classes = classes;
+		}
+
+		@Override
+		public OutputStream openOutputStream() {
+			return new ByteArrayOutputStream() {
+				@Override
+				public void close() throws IOException {
+					super.close();
+					classes.put(path, toByteArray());
+				}
+			};
+		}
+	}
+
+	/**
+	 * Start writing sources jar in the background when sources should be included.
+	 *
+	 * @return task to be awaited or null when sources are not included
+	 */
+	private static FutureTask<Boolean> startSourcesJar(
+			final Context context,
+			final Map<String, String> sources,
+			final File output,
+			final int level) {
+		if (!context.contains(IncludeSources.INSTANCE)) {
+			return null;
+		}
+		final FutureTask<Boolean> sourcesJar = new FutureTask<Boolean>(new Callable<Boolean>() {
+			@Override
+			public Boolean call() throws IOException {
+				JarArchiver.archiveText(sources, JavaPath.getSourcesArchive(output), level);
+				return true;
+			}
+		});
+		final Thread thread = new Thread(sourcesJar, "sources-" + output.getName());
+		thread.setDaemon(true);
+		thread.start();
+		return sourcesJar;
+	}
+
+	/**
+	 * Compile sources held in memory and write classes directly into the output jar.
+	 * After successful compilation, sources jar is written at the same time as the class jar.
+	 *
+	 * @param sources content of the Java files by their relative path, eg. com/example/Model.java
+	 */
+	static Either<String> compileInMemory(
+			final File libraries,
+			final Map<String, String> sources,
+			final File output,
+			final Context context) {
+		final Either<File[]> prepared = prepare(libraries, output);
+		if (!prepared.isSuccess()) {
+			return Either.fail(prepared.whyNot());
+		}
+		final int level = JarCompression.getLevel(context);
+		final List<JavaFileObject> units = new ArrayList<JavaFileObject>(sources.size());
+		for (final Map.Entry<String, String> kv : sources.entrySet()) {
+			if (kv.getKey().endsWith(".java")) {
+				units.add(new MemorySource(kv.getKey(), kv.getValue()));
+			}
+		}
+		if (units.isEmpty()) {
+			return Either.fail("No Java sources generated for " + output.getName());
+		}
+		final JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+		if (context.contains(Incremental.INSTANCE)) {
+			final Either<String> compilation = IncrementalCompilation.compile(compiler, prepared.get(), sources, output, level, context);
+			if (!compilation.isSuccess()) {
+				return compilation;
+			}
+			return awaitSources(startSourcesJar(context, sources, output, level), output, compilation.get());
+		}
+		final StandardJavaFileManager standard = compiler.getStandardFileManager(null, null, UTF8);
+		try {
+			return compileInMemory(compiler, standard, prepared.get(), sources, units, output, level, context);
+		} finally {
+			close(standard);
+		}
+	}
+
+	private static Either<String> compileInMemory(
+			final JavaCompiler compiler,
+			final StandardJavaFileManager standard,
+			final File[] externalJars,
+			final Map<String, String> sources,
+			final List<JavaFileObject> units,
+			final File output,
+			final int level,
+			final Context context) {
+		try {
+			standard.setLocation(StandardLocation.CLASS_PATH, Arrays.asList(externalJars));
+		} catch (IOException ex) {
+			return Either.fail(ex);
+		}
+		final Map<String, byte[]> classes = Collections.synchronizedMap(new HashMap<String, byte[]>());
+		final JavaFileManager fileManager = new ForwardingJavaFileManager<StandardJavaFileManager>(standard) {
+			@Override
+			public JavaFileObject getJavaFileForOutput(
+					final Location location,
+					final String className,
+					final JavaFileObject.Kind kind,
+					final FileObject sibling) throws IOException {
+				if (kind == JavaFileObject.Kind.CLASS) {
+					return new MemoryClass(className.replace('.', '/') + ".class", classes);
+				}
+				return super.getJavaFileForOutput(location, className, kind, sibling);
+			}
+		};
+		final DiagnosticCollector<JavaFileObject> diagnostics = new DiagnosticCollector<JavaFileObject>();
+		context.show("Compiling " + output.getName() + " in memory...");
+		final JavaCompiler.CompilationTask task = compiler.getTask(
+				null,
+				fileManager,
+				diagnostics,
+				Arrays.asList("-encoding", "UTF8"),
+				null,
+				units);
+		if (!task.call()) {
+			final String errors = describe(diagnostics, Diagnostic.Kind.ERROR);
+			return Either.fail(errors.length() > 0 ? errors : "Java compilation failed for " + output.getName());
+		}
+		final FutureTask<Boolean> sourcesJar = startSourcesJar(context, sources, output, level);
+		try {
+			JarArchiver.archive(classes, output, level);
+			context.log("Archived " + classes.size() + " classes into " + output.getAbsolutePath());
+		} catch (IOException ex) {
+			JavaPath.discardSources(sourcesJar, output);
+			return Either.fail("Unable to create " + output.getAbsolutePath(), ex);
+		}
+		return awaitSources(sourcesJar, output, describe(diagnostics, Diagnostic.Kind.WARNING));
+	}
+
+	private static Either<String> awaitSources(final FutureTask<Boolean> sourcesJar, final File output, final String warnings) {
+		if (sourcesJar != null) {
+			try {
+				sourcesJar.get();
+			} catch (InterruptedException ex) {
+				return Either.fail(ex);
+			} catch (ExecutionException ex) {
+				return Either.fail("Unable to create " + JavaPath.getSourcesArchive(output).getAbsolutePath(),
+						ex.getCause() instanceof Exception ? (Exception) ex.getCause() : ex);
+			}
+		}
+		return Either.success(warnings);
+	}
+
+	private static Either<Map<String, String>> readSources(final File source) {
+		final String root = source.getAbsolutePath();
+		final Map<String, String> sources = new HashMap<String, String>();
+		final char[] buffer = new char[8192];
+		for (final File f : Utils.findFiles(source, Arrays.asList(".java"))) {
+			final StringBuilder sb = new StringBuilder((int) f.length());
+			try {
+				final Reader reader = new InputStreamReader(new FileInputStream(f), UTF8);
+				try {
+					int len;
+					while ((len = reader.read(buffer)) != -1) {
+						sb.append(buffer, 0, len);
+					}
+				} finally {
+					reader.close();
+				}
+			} catch (IOException ex) {
+				return Either.fail("Unable to read Java source: " + f.getAbsolutePath(), ex);
+			}
+			sources.put(f.getAbsolutePath().substring(root.length() + 1).replace(File.separatorChar, '/'), sb.toString());
+		}
+		return Either.success(sources);
+	}
+
+	static void close(final StandardJavaFileManager fileManager) {
+		try {
+			fileManager.close();
+		} catch (IOException ignore) {
+		}
+	}
 
+	static String describe(final DiagnosticCollector<JavaFileObject> diagnostics, final Diagnostic.Kind kind) {
+		final StringBuilder sb = new StringBuilder();
+		for (final Diagnostic<? extends JavaFileObject> d : diagnostics.getDiagnostics()) {
+			if ((d.getKind() == Diagnostic.Kind.ERROR) != (kind == Diagnostic.Kind.ERROR)) {
+				continue;
+			}
+			if (d.getSource() != null) {
+				sb.append(d.getSource().getName()).append(':').append(d.getLineNumber()).append(": ");
+			}
+			sb.append(d.getKind().name().toLowerCase().replace('_', ' ')).append(": ");
+			sb.append(d.getMessage(null)).append("\n");
+		}
+		return sb.toString();
+	}
+
+	private static Either<String> compileInProcess(
+			final JavaCompiler compiler,
+			final File source,
+			final File classOut,
+			final File output,
+			final File[] externalJars,
+			final Context context) {
+		final List<File> javaFiles = Utils.findFiles(source, Arrays.asList(".java"));
+		if (javaFiles.size() == 0) {
+			return Either.fail("Unable to find Java generated sources in: " + source.getAbsolutePath());
+		}
+		final StandardJavaFileManager fileManager = compiler.getStandardFileManager(null, null, UTF8);
+		try {
+			fileManager.setLocation(StandardLocation.CLASS_OUTPUT, Collections.singletonList(classOut));
+			fileManager.setLocation(StandardLocation.CLASS_PATH, Arrays.asList(externalJars));
+			final DiagnosticCollector<JavaFileObject> diagnostics = new DiagnosticCollector<JavaFileObject>();
+			context.show("Compiling " + output.getName() + " in process...");
+			final JavaCompiler.CompilationTask task = compiler.getTask(
+					null,
+					fileManager,
+					diagnostics,
+					Arrays.asList("-encoding", "UTF8"),
+					null,
+					fileManager.getJavaFileObjectsFromFiles(javaFiles));
+			if (!task.call()) {
+				final String errors = describe(diagnostics, Diagnostic.Kind.ERROR);
+				return Either.fail(errors.length() > 0 ? errors : "Java compilation failed for " + output.getName());
+			}
+			return Either.success(describe(diagnostics, Diagnostic.Kind.WARNING));
+		} catch (IOException ex) {
+			return Either.fail(ex);
+		} finally {
+			close(fileManager);
+		}
+	}
+
+	private static Either<String> compileExternal(
+			final String name,
+			final File source,
+			final File output,
+			final File[] externalJars,
+			final Context context) {
+		final Either<String> tryCompiler = JavaPath.findCompiler(context);
+		if (!tryCompiler.isSuccess()) {
+			return Either.fail(tryCompiler.whyNot());
+		}
+		final String javac = tryCompiler.get();
+		final int len = source.getAbsolutePath().length() + 1;
 		final List<String> javacArguments = new ArrayList<String>();
 		javacArguments.add("-encoding");
 		javacArguments.add("UTF8");
@@ -95,11 +406,6 @@ class JavaCompilation {
 			}
 			return Either.fail(compilation.output);
 		}
-
-		final Either<Utils.CommandResult> tryArchive = JavaPath.makeArchive(context, source, classOut, output);
-		if (!tryArchive.isSuccess()) {
-			return Either.fail(tryArchive.whyNot());
-		}
 		return Either.success(compilation.output);
 	}
 }
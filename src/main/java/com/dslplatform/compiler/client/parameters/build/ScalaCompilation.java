@@ -98,13 +98,13 @@ class ScalaCompilation {
 				return Either.fail(compilation.output);
 			}
 			compilationOutput = compilation.output;
-			final Either<Utils.CommandResult> tryArchive = JavaPath.makeArchive(context, source, classOut, output);
+			final Either<Boolean> tryArchive = JavaPath.makeArchive(context, source, classOut, output);
 			if (!tryArchive.isSuccess()) {
 				return Either.fail(tryArchive.whyNot());
 			}
 		} else {
 			context.show("Making empty jar " + output.getName() + " since there is no source!");
-			final Either<Utils.CommandResult> tryArchive = JavaPath.makeEmptyArchive(context, classOut, output);
+			final Either<Boolean> tryArchive = JavaPath.makeEmptyArchive(context, output);
 			if (!tryArchive.isSuccess()) {
 				return Either.fail(tryArchive.whyNot());
 			}
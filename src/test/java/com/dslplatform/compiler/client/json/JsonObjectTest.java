@@ -0,0 +1,52 @@
+package com.dslplatform.compiler.client.json;
+
+import org.junit.*;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class JsonObjectTest {
+	@Test
+	public void testLookupInLargeObject() {
+		final JsonObject object = new JsonObject();
+		for (int i = 0; i < 5000; i++) {
+			object.add("file" + i, i);
+		}
+		for (int i = 0; i < 5000; i++) {
+			assertEquals(i, object.get("file" + i).asInt());
+		}
+		assertNull(object.get("file5000"));
+	}
+
+	@Test
+	public void testLastDuplicateWins() {
+		final JsonObject object = new JsonObject().add("a", 1).add("b", 2).add("a", 3);
+		assertEquals(3, object.get("a").asInt());
+		object.remove("a");
+		assertEquals(1, object.get("a").asInt());
+		assertEquals(2, object.get("b").asInt());
+		object.set("b", 4);
+		assertEquals(4, object.get("b").asInt());
+		assertEquals(2, object.size());
+	}
+
+	@Test
+	public void testUnmodifiableViewFollowsChanges() {
+		final JsonObject object = new JsonObject().add("a", 1);
+		final JsonObject view = JsonObject.unmodifiableObject(object);
+		object.add("b", 2);
+		assertEquals(2, view.get("b").asInt());
+	}
+
+	@Test
+	public void testUnmodifiableViewFollowsRemoveAndAdd() {
+		final JsonObject object = new JsonObject().add("a", 1).add("b", 2);
+		final JsonObject view = JsonObject.unmodifiableObject(object);
+		assertEquals(1, view.get("a").asInt());
+		object.remove("a");
+		object.add("c", 3);
+		assertNull(view.get("a"));
+		assertEquals(2, view.get("b").asInt());
+		assertEquals(3, view.get("c").asInt());
+	}
+}
@@ -0,0 +1,60 @@
+package com.dslplatform.compiler.client.json;
+
+import org.junit.*;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+
+import static com.dslplatform.compiler.client.json.JsonParser.Event.*;
+import static org.junit.Assert.assertEquals;
+
+public class JsonParserTest {
+	@Test
+	public void testEvents() throws IOException {
+		final JsonParser parser = new JsonParser(new StringReader("{\"a\":[1,true,null,\"x\"],\"b\":{},\"c\":false}"));
+		assertEquals(START_OBJECT, parser.next());
+		assertEquals(NAME, parser.next());
+		assertEquals("a", parser.getString());
+		assertEquals(START_ARRAY, parser.next());
+		assertEquals(NUMBER, parser.next());
+		assertEquals("1", parser.getString());
+		assertEquals(TRUE, parser.next());
+		assertEquals(NULL, parser.next());
+		assertEquals(STRING, parser.next());
+		assertEquals("x", parser.getString());
+		assertEquals(END_ARRAY, parser.next());
+		assertEquals(NAME, parser.next());
+		assertEquals(START_OBJECT, parser.next());
+		assertEquals(END_OBJECT, parser.next());
+		assertEquals(NAME, parser.next());
+		assertEquals(FALSE, parser.next());
+		assertEquals(END_OBJECT, parser.next());
+		assertEquals(END, parser.next());
+	}
+
+	@Test
+	public void testStreamingStringAcrossBuffer() throws IOException {
+		final StringBuilder expected = new StringBuilder();
+		for (int i = 0; i < 100; i++) {
+			expected.append("line \"").append(i).append("\"\\\n\tü");
+		}
+		final String json = "[\"skip\\\"ped\"," + new JsonString(expected.toString()).toString() + "]";
+		final JsonParser parser = new JsonParser(new StringReader(json), 16);
+		assertEquals(START_ARRAY, parser.next());
+		assertEquals(STRING, parser.next());
+		assertEquals(STRING, parser.next());
+		final StringWriter writer = new StringWriter();
+		parser.readString(writer);
+		assertEquals(expected.toString(), writer.toString());
+		assertEquals(END_ARRAY, parser.next());
+		assertEquals(END, parser.next());
+	}
+
+	@Test(expected = ParseException.class)
+	public void testInvalidSeparator() throws IOException {
+		final JsonParser parser = new JsonParser(new StringReader("{\"a\":1;}"));
+		while (parser.next() != END) {
+		}
+	}
+}
@@ -0,0 +1,34 @@
+package com.dslplatform.compiler.client.json;
+
+import org.junit.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.StringWriter;
+
+import static org.junit.Assert.assertEquals;
+
+public class JsonWriterTest {
+	private static String write(final String value) throws IOException {
+		final StringWriter sw = new StringWriter();
+		new JsonWriter(sw).writeString(value);
+		return sw.toString();
+	}
+
+	@Test
+	public void testEscaping() throws IOException {
+		assertEquals("\"\"", write(""));
+		assertEquals("\"abc\"", write("abc"));
+		assertEquals("\"a\\\"b\\\\c\\n\\r\\td\"", write("a\"b\\c\n\r\td"));
+		assertEquals("\"\\u0001x\\u001f\"", write("\u0001x\u001f"));
+		assertEquals("\"\\u2028\\u2029\u2030\u00e9\"", write(new String(new char[] { 0x2028, 0x2029, 0x2030, 0xe9 })));
+	}
+
+	@Test
+	public void testWriteToStream() throws IOException {
+		final JsonObject object = new JsonObject().add("name", "\u0161\u0111\u010d\u0107\u017e \"quoted\"");
+		final ByteArrayOutputStream os = new ByteArrayOutputStream();
+		object.writeTo(os);
+		assertEquals(object.toString(), new String(os.toByteArray(), "UTF-8"));
+	}
+}
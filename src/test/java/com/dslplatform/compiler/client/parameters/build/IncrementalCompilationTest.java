@@ -0,0 +1,183 @@
+package com.dslplatform.compiler.client.parameters.build;
+
+import com.dslplatform.compiler.client.Utils;
+import org.junit.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.*;
+
+import static org.junit.Assert.*;
+
+public class IncrementalCompilationTest {
+
+	static class Base {
+		public static final int LIMIT = 10;
+	}
+
+	static class Child extends Base implements Runnable {
+		private static final long serialVersionUID = 1L;
+		private List<String> names;
+
+		public void run() {
+			names = new ArrayList<String>();
+		}
+
+		Map<String, Base> lookup() {
+			return null;
+		}
+	}
+
+	private static byte[] classBytes(final Class<?> manifest) throws IOException {
+		final InputStream is = manifest.getResourceAsStream(manifest.getName().substring(manifest.getName().lastIndexOf('.') + 1) + ".class");
+		try {
+			final ByteArrayOutputStream os = new ByteArrayOutputStream();
+			final byte[] buffer = new byte[8192];
+			int len;
+			while ((len = is.read(buffer)) != -1) {
+				os.write(buffer, 0, len);
+			}
+			return os.toByteArray();
+		} finally {
+			is.close();
+		}
+	}
+
+	private static String internalName(final Class<?> manifest) {
+		return manifest.getName().replace('.', '/');
+	}
+
+	@Test
+	public void readClassFindsReferencesAndSupertypes() throws IOException {
+		final IncrementalCompilation.ClassInfo info = IncrementalCompilation.readClass(classBytes(Child.class));
+		assertTrue(info.supertypes.contains(internalName(Base.class)));
+		assertTrue(info.supertypes.contains("java/lang/Runnable"));
+		assertEquals(2, info.supertypes.size());
+		assertTrue(info.references.contains("java/util/ArrayList"));
+		assertTrue(info.references.contains("java/util/List"));
+		assertTrue(info.references.contains("java/util/Map"));
+		assertFalse(info.constants);
+	}
+
+	@Test
+	public void readClassDetectsConstants() throws IOException {
+		final IncrementalCompilation.ClassInfo info = IncrementalCompilation.readClass(classBytes(Base.class));
+		assertTrue(info.constants);
+		assertEquals(Collections.singleton("java/lang/Object"), info.supertypes);
+	}
+
+	@Test(expected = IOException.class)
+	public void readClassRejectsInvalidFile() throws IOException {
+		IncrementalCompilation.readClass(new byte[]{1, 2, 3, 4, 5, 6, 7, 8});
+	}
+
+	private static Set<String> set(final String... values) {
+		return new HashSet<String>(Arrays.asList(values));
+	}
+
+	private static void add(
+			final IncrementalCompilation.Index index,
+			final Map<String, String> sources,
+			final String name,
+			final String superclass,
+			final String... references) {
+		final String source = name + ".java";
+		final String content = "class " + name;
+		sources.put(source, content);
+		index.hashes.put(source, Utils.sha1(content));
+		index.classes.put(source, set(name));
+		final IncrementalCompilation.ClassInfo info = new IncrementalCompilation.ClassInfo();
+		info.supertypes.add(superclass);
+		info.references.add(superclass);
+		info.references.addAll(Arrays.asList(references));
+		index.add(name, info);
+	}
+
+	/**
+	 * A <- B <- C is a subclass chain, D uses C, E uses D, F uses G and H is unrelated.
+	 */
+	private static IncrementalCompilation.Index createIndex(final Map<String, String> sources) {
+		final IncrementalCompilation.Index index = new IncrementalCompilation.Index("classpath");
+		add(index, sources, "A", "java/lang/Object");
+		add(index, sources, "B", "A");
+		add(index, sources, "C", "B");
+		add(index, sources, "D", "java/lang/Object", "C");
+		add(index, sources, "E", "java/lang/Object", "D");
+		add(index, sources, "F", "java/lang/Object", "G");
+		add(index, sources, "G", "java/lang/Object");
+		add(index, sources, "H", "java/lang/Object");
+		return index;
+	}
+
+	@Test
+	public void noChanges() {
+		final Map<String, String> sources = new HashMap<String, String>();
+		final IncrementalCompilation.Index index = createIndex(sources);
+		final Set<String> removed = new HashSet<String>();
+		final Map<String, String> changes = IncrementalCompilation.findChanges(index, sources, removed);
+		assertTrue(changes.isEmpty());
+		assertTrue(removed.isEmpty());
+	}
+
+	@Test
+	public void changeIncludesSubclassChainAndItsUsers() {
+		final Map<String, String> sources = new HashMap<String, String>();
+		final IncrementalCompilation.Index index = createIndex(sources);
+		sources.put("A.java", "class A { int changed; }");
+		final Set<String> removed = new HashSet<String>();
+		final Map<String, String> changes = IncrementalCompilation.findChanges(index, sources, removed);
+		assertEquals(set("A.java", "B.java", "C.java", "D.java"), changes.keySet());
+		assertEquals("class A { int changed; }", changes.get("A.java"));
+		assertTrue(removed.isEmpty());
+	}
+
+	@Test
+	public void changeOfLeafIncludesOnlyDirectUsers() {
+		final Map<String, String> sources = new HashMap<String, String>();
+		final IncrementalCompilation.Index index = createIndex(sources);
+		sources.put("D.java", "class D { int changed; }");
+		final Map<String, String> changes = IncrementalCompilation.findChanges(index, sources, new HashSet<String>());
+		assertEquals(set("D.java", "E.java"), changes.keySet());
+	}
+
+	@Test
+	public void removedSourceIncludesUsers() {
+		final Map<String, String> sources = new HashMap<String, String>();
+		final IncrementalCompilation.Index index = createIndex(sources);
+		sources.remove("G.java");
+		final Set<String> removed = new HashSet<String>();
+		final Map<String, String> changes = IncrementalCompilation.findChanges(index, sources, removed);
+		assertEquals(set("G.java"), removed);
+		assertEquals(set("F.java"), changes.keySet());
+	}
+
+	@Test
+	public void newSourceIsCompiled() {
+		final Map<String, String> sources = new HashMap<String, String>();
+		final IncrementalCompilation.Index index = createIndex(sources);
+		sources.put("I.java", "class I");
+		final Map<String, String> changes = IncrementalCompilation.findChanges(index, sources, new HashSet<String>());
+		assertEquals(set("I.java"), changes.keySet());
+	}
+
+	@Test
+	public void changedConstantsRequireFullCompilation() {
+		final Map<String, String> sources = new HashMap<String, String>();
+		final IncrementalCompilation.Index index = createIndex(sources);
+		index.constants.add("G");
+		sources.put("H.java", "class H { int changed; }");
+		assertEquals(set("H.java"), IncrementalCompilation.findChanges(index, sources, new HashSet<String>()).keySet());
+		sources.put("G.java", "class G { static final int X = 2; }");
+		assertNull(IncrementalCompilation.findChanges(index, sources, new HashSet<String>()));
+	}
+
+	@Test
+	public void removedConstantsRequireFullCompilation() {
+		final Map<String, String> sources = new HashMap<String, String>();
+		final IncrementalCompilation.Index index = createIndex(sources);
+		index.constants.add("G");
+		sources.remove("G.java");
+		assertNull(IncrementalCompilation.findChanges(index, sources, new HashSet<String>()));
+	}
+}